@@ -2,13 +2,54 @@ import java.util.*;
 
 class Program {
     // Program = Declarations globals; Functions functions
-    Declarations globals;
-    Functions functions;
+    final Declarations globals;
+    final Functions functions;
 
     Program(Declarations g, Functions f) {
         globals = g; functions = f;
     }
 
+    // Makes every list in the program read-only, once it is compiled, so
+    // it can be run by any number of threads at a time; each run has its
+    // own Semantics and State, and keeps whatever it learns while running
+    // (the Jit's counters and code) there. Node fields are final, apart
+    // from the positions and types the front end fills in before this,
+    // and nothing writes them afterwards.
+    Program freeze() {
+        globals.freeze();
+        functions.freeze();
+        for (Function f : functions) {
+            f.params.freeze();
+            f.locals.freeze();
+            freeze(f.body);
+        }
+        return this;
+    }
+
+    private static void freeze(Statement s) {
+        if (s instanceof Block) {
+            ((Block)s).freeze();
+            for (Statement m : (Block)s) freeze(m);
+        } else if (s instanceof Assignment) freeze(((Assignment)s).source);
+        else if (s instanceof Conditional) {
+            Conditional c = (Conditional)s;
+            freeze(c.test); freeze(c.thenbranch); freeze(c.elsebranch);
+        } else if (s instanceof Loop) {
+            freeze(((Loop)s).test); freeze(((Loop)s).body);
+        } else if (s instanceof Call) freeze((Expression)s);
+        else if (s instanceof Return) freeze(((Return)s).result);
+    }
+
+    private static void freeze(Expression e) {
+        if (e instanceof Binary) {
+            freeze(((Binary)e).term1); freeze(((Binary)e).term2);
+        } else if (e instanceof Unary) freeze(((Unary)e).term);
+        else if (e instanceof Call) {
+            ((Call)e).args.freeze();
+            for (Expression a : ((Call)e).args) freeze(a);
+        }
+    }
+
     public void display(int k) {
         for (int w = 0; w < k; w++) {
             System.out.print("\t");
@@ -20,7 +61,39 @@ class Program {
     }
 }
 
-class Declarations extends ArrayList<Declaration> {
+// An ArrayList that can be made read-only once it is built; after
+// freeze() every change throws UnsupportedOperationException.
+class NodeList<E> extends ArrayList<E> {
+    private boolean frozen;
+
+    void freeze() { frozen = true; }
+
+    private void change() {
+        if (frozen) throw new UnsupportedOperationException("frozen AST");
+    }
+
+    public boolean add(E e) { change(); return super.add(e); }
+    public void add(int i, E e) { change(); super.add(i, e); }
+    public boolean addAll(Collection<? extends E> c) { change(); return super.addAll(c); }
+    public boolean addAll(int i, Collection<? extends E> c) { change(); return super.addAll(i, c); }
+    public E set(int i, E e) { change(); return super.set(i, e); }
+    public E remove(int i) { change(); return super.remove(i); }
+    public boolean remove(Object o) { change(); return super.remove(o); }
+    public boolean removeAll(Collection<?> c) { change(); return super.removeAll(c); }
+    public boolean retainAll(Collection<?> c) { change(); return super.retainAll(c); }
+    public boolean removeIf(java.util.function.Predicate<? super E> p) { change(); return super.removeIf(p); }
+    public void replaceAll(java.util.function.UnaryOperator<E> u) { change(); super.replaceAll(u); }
+    public void sort(Comparator<? super E> c) { change(); super.sort(c); }
+    public void clear() { change(); super.clear(); }
+    protected void removeRange(int from, int to) { change(); super.removeRange(from, to); }
+
+    public List<E> subList(int from, int to) {
+        List<E> l = super.subList(from, to);
+        return frozen ? Collections.unmodifiableList(l) : l;
+    }
+}
+
+class Declarations extends NodeList<Declaration> {
     // Declarations = Declaration*
     public void display(int k) {
         for (int w = 0; w < k; w++) {
@@ -35,20 +108,28 @@ class Declarations extends ArrayList<Declaration> {
 
 class Declaration {
     // Declaration = Variable var; Type type
-    Variable var;
-    Type type;
+    final Variable var;
+    final Type type;
+    // a temporary added by LoopOptimizer, left out of states
+    boolean temporary;
+    // source position of the identifier, 0 when not parsed
+    int line, column;
 
     Declaration(Variable v, Type t) {
         var = v; type = t;
     }
 
+    Declaration(Variable v, Type t, int l, int c) {
+        this(v, t); line = l; column = c;
+    }
+
     public void display(int k) {
         System.out.print(" <" + var + ", ");
         System.out.print(type + "> ");
     }
 }
 
-class Functions extends ArrayList<Function> {
+class Functions extends NodeList<Function> {
     // Functions = Function*
     public Function getFunction(String name) {
         for (Function function : this)
@@ -65,10 +146,12 @@ class Functions extends ArrayList<Function> {
 
 class Function {
     // Function = Type type; String id; Declarations params, locals; Block body
-    Type type;
-    String id;
-    Declarations params, locals;
-    Block body;
+    final Type type;
+    final String id;
+    final Declarations params, locals;
+    final Block body;
+    // source position of the name, 0 when not parsed
+    int line, column;
 
     Function(Type t, String s, Declarations p, Declarations l, Block b) {
         type = t; id = s; params = p; locals = l; body = b;
@@ -111,10 +194,11 @@ class Type {
 }
 
 class ProtoType extends Type {
+    Type result;
     Declarations params;
 
-    ProtoType(Type t) { super(t.toString()); }
-    ProtoType(Type t, Declarations p) { super(t.toString()); params = p; }
+    ProtoType(Type t) { super(t.toString()); result = t; }
+    ProtoType(Type t, Declarations p) { super(t.toString()); result = t; params = p; }
     
     public void display(int k) { }
  }
@@ -123,6 +207,59 @@ class ProtoType extends Type {
 interface Statement {
     // Statement = Skip | Block | Assignment | Conditional | Loop | Call | Return
     void display(int k);
+
+    // s ends in a Return on every path through it
+    static boolean returns(Statement s) {
+        if (s instanceof Return) return true;
+        if (s instanceof Block) {
+            for (Statement m : (Block)s)
+                if (returns(m)) return true;
+            return false;
+        }
+        if (s instanceof Conditional)
+            return returns(((Conditional)s).thenbranch) && returns(((Conditional)s).elsebranch);
+        return false;
+    }
+
+    // where s starts in the source; 0 when not parsed, or for a Skip or Block
+    static int line(Statement s) {
+        if (s instanceof Assignment) return ((Assignment)s).line;
+        if (s instanceof Conditional) return ((Conditional)s).line;
+        if (s instanceof Loop) return ((Loop)s).line;
+        if (s instanceof Call) return ((Call)s).line;
+        if (s instanceof Return) return ((Return)s).line;
+        return 0;
+    }
+
+    static int column(Statement s) {
+        if (s instanceof Assignment) return ((Assignment)s).column;
+        if (s instanceof Conditional) return ((Conditional)s).column;
+        if (s instanceof Loop) return ((Loop)s).column;
+        if (s instanceof Call) return ((Call)s).column;
+        if (s instanceof Return) return ((Return)s).column;
+        return 0;
+    }
+
+    // places s at line and column and returns it
+    static <S extends Statement> S at(S s, int line, int column) {
+        if (s instanceof Assignment) {
+            ((Assignment)s).line = line; ((Assignment)s).column = column;
+        } else if (s instanceof Conditional) {
+            ((Conditional)s).line = line; ((Conditional)s).column = column;
+        } else if (s instanceof Loop) {
+            ((Loop)s).line = line; ((Loop)s).column = column;
+        } else if (s instanceof Call) {
+            ((Call)s).line = line; ((Call)s).column = column;
+        } else if (s instanceof Return) {
+            ((Return)s).line = line; ((Return)s).column = column;
+        }
+        return s;
+    }
+
+    // places s, which a pass has built in place of from, where from is
+    static <S extends Statement> S at(S s, Statement from) {
+        return at(s, line(from), column(from));
+    }
 }
 
 class Skip implements Statement {
@@ -134,7 +271,7 @@ class Skip implements Statement {
     }
 }
 
-class Block extends ArrayList<Statement> implements Statement {
+class Block extends NodeList<Statement> implements Statement {
     // Block = Statement*
     public void display(int k) {
         for (int w = 0; w < k; w++) {
@@ -148,8 +285,10 @@ class Block extends ArrayList<Statement> implements Statement {
 
 class Assignment implements Statement {
     // Assignment = Variable target; Expression source
-    Variable target;
-    Expression source;
+    final Variable target;
+    final Expression source;
+    // source position of the statement, 0 when not parsed
+    int line, column;
 
     Assignment(Variable t, Expression e) {
         target = t; source = e;
@@ -170,8 +309,10 @@ class Assignment implements Statement {
 
 class Conditional implements Statement {
     // Conditional = Expression test; Statement thenbranch, elsebranch
-    Expression test;
-    Statement thenbranch, elsebranch;
+    final Expression test;
+    final Statement thenbranch, elsebranch;
+    // source position of the statement, 0 when not parsed
+    int line, column;
 
     Conditional(Expression t, Statement tp) {
         test = t; thenbranch = tp; elsebranch = new Skip();
@@ -196,8 +337,10 @@ class Conditional implements Statement {
 
 class Loop implements Statement {
     // Loop = Expression test; Statement body
-    Expression test;
-    Statement body;
+    final Expression test;
+    final Statement body;
+    // source position of the statement, 0 when not parsed
+    int line, column;
 
     Loop(Expression t, Statement b) {
         test = t; body = b;
@@ -215,11 +358,21 @@ class Loop implements Statement {
 
 class Call implements Statement, Expression {
     // Call = String name; Expressions args
-    String name;
-    Expressions args;
+    final String name;
+    final Expressions args;
+    // index into Program.functions, set by Resolver; -1 before
+    final int index;
+    // result type, memoized by StaticTypeCheck.typeOf
+    Type type;
+    // source position of the statement, 0 when not parsed
+    int line, column;
 
     Call(String n, Expressions a) {
-        name = n; args = a;
+        this(n, a, -1);
+    }
+
+    Call(String n, Expressions a, int i) {
+        name = n; args = a; index = i;
     }
 
     public void display(int k) {
@@ -239,8 +392,10 @@ class Call implements Statement, Expression {
 
 class Return implements Statement {
     // Return = Variable target; Expression result
-    Variable target;
-    Expression result;
+    final Variable target;
+    final Expression result;
+    // source position of the statement, 0 when not parsed
+    int line, column;
 
     Return(Variable t, Expression r) {
         target = t; result = r;
@@ -256,7 +411,7 @@ class Return implements Statement {
     }
 }
 
-class Expressions extends ArrayList<Expression> {
+class Expressions extends NodeList<Expression> {
     public void display(int k) { }
 }
 
@@ -268,8 +423,15 @@ interface Expression {
 class Variable implements Expression {
     // Variable = String id
     private String id;
+    // frame slot assigned by Resolver; -1 until resolved
+    final int slot;
+    final boolean global;
+    // resolved type, memoized by StaticTypeCheck.typeOf
+    Type type;
+
+    Variable(String s) { this(s, -1, false); }
 
-    Variable(String s) { id = s; }
+    Variable(String s, int n, boolean g) { id = s; slot = n; global = g; }
 
     public String toString() { return id; }
 
@@ -290,8 +452,10 @@ class Variable implements Expression {
 
 abstract class Value implements Expression {
     // Value = IntValue | BoolValue | CharValue | FloatValue | VoidValue | UndefinedValue | UnusedValue
-    protected Type type;
-    protected boolean undef = true;
+    protected final Type type;
+    protected final boolean undef;
+
+    Value(Type t, boolean u) { type = t; undef = u; }
 
     int intValue() {
         assert false : "should never reach here";
@@ -324,6 +488,7 @@ abstract class Value implements Expression {
         if (type == Type.BOOL) return new BoolValue();
         if (type == Type.CHAR) return new CharValue();
         if (type == Type.FLOAT) return new FloatValue();
+        if (type == Type.VOID) return new VoidValue();
         if (type == Type.UNDEFINED) return new UndefinedValue();
         if (type == Type.UNUSED) return new UnusedValue();
         throw new IllegalArgumentException("Illegal type in mkValue");
@@ -331,11 +496,11 @@ abstract class Value implements Expression {
 }
 
 class IntValue extends Value {
-    private int value = 0;
+    private final int value;
 
-    IntValue() { type = Type.INT; }
+    IntValue() { super(Type.INT, true); value = 0; }
 
-    IntValue(int v) { this(); value = v; undef = false; }
+    IntValue(int v) { super(Type.INT, false); value = v; }
 
     int intValue() {
         assert !undef : "reference to undefined int value";
@@ -357,11 +522,11 @@ class IntValue extends Value {
 }
 
 class BoolValue extends Value {
-    private boolean value = false;
+    private final boolean value;
 
-    BoolValue() { type = Type.BOOL; }
+    BoolValue() { super(Type.BOOL, true); value = false; }
 
-    BoolValue(boolean v) { this(); value = v; undef = false; }
+    BoolValue(boolean v) { super(Type.BOOL, false); value = v; }
 
     boolean boolValue() {
         assert !undef : "reference to undefined bool value";
@@ -388,11 +553,11 @@ class BoolValue extends Value {
 }
 
 class CharValue extends Value {
-    private char value = ' ';
+    private final char value;
 
-    CharValue() { type = Type.CHAR; }
+    CharValue() { super(Type.CHAR, true); value = ' '; }
 
-    CharValue(char v) { this(); value = v; undef = false; }
+    CharValue(char v) { super(Type.CHAR, false); value = v; }
 
     char charValue() {
         assert !undef : "reference to undefined char value";
@@ -414,11 +579,11 @@ class CharValue extends Value {
 }
 
 class FloatValue extends Value {
-    private float value = 0;
+    private final float value;
 
-    FloatValue() { type = Type.FLOAT; }
+    FloatValue() { super(Type.FLOAT, true); value = 0; }
 
-    FloatValue(float v) { this(); value = v; undef = false; }
+    FloatValue(float v) { super(Type.FLOAT, false); value = v; }
 
     float floatValue() {
         assert !undef : "reference to undefined float value";
@@ -440,11 +605,11 @@ class FloatValue extends Value {
 }
 
 class VoidValue extends Value {
-	private float value = 0;
+	private final float value;
 	
-	VoidValue() { type = Type.VOID; }
+	VoidValue() { super(Type.VOID, true); value = 0; }
 	
-	VoidValue(float v) { this(); value = v; undef = false; }
+	VoidValue(float v) { super(Type.VOID, false); value = v; }
 	
 	float voidValue() {
 		assert !undef : "reference to undefined void value";
@@ -466,7 +631,7 @@ class VoidValue extends Value {
 }
 
 class UndefinedValue extends Value {
-    UndefinedValue() { type = Type.UNDEFINED; undef = true; }
+    UndefinedValue() { super(Type.UNDEFINED, true); }
     
     public void display(int k) {
         for (int w = 0; w < k; w++) {
@@ -477,7 +642,7 @@ class UndefinedValue extends Value {
 }
 
 class UnusedValue extends Value {
-    UnusedValue() { type = Type.UNUSED; undef = true; }
+    UnusedValue() { super(Type.UNUSED, true); }
     
     public void display(int k) {
         for (int w = 0; w < k; w++) {
@@ -489,11 +654,14 @@ class UnusedValue extends Value {
 
 class Binary implements Expression {
     // Binary = Operator op; Expression term1, term2
-    Operator op;
-    Expression term1, term2;
+    final Operator op;
+    final Expression term1, term2;
+    // result type, memoized by StaticTypeCheck.typeOf; known up front
+    // for a typed operator
+    Type type;
 
     Binary(Operator o, Expression l, Expression r) {
-        op = o; term1 = l; term2 = r;
+        op = o; term1 = l; term2 = r; type = o.result;
     }
 
     public void display(int k) {
@@ -509,11 +677,14 @@ class Binary implements Expression {
 
 class Unary implements Expression {
     // Unary = Operator op; Expression term
-    Operator op;
-    Expression term;
+    final Operator op;
+    final Expression term;
+    // result type, memoized by StaticTypeCheck.typeOf; known up front
+    // for a typed operator
+    Type type;
 
     Unary(Operator o, Expression e) {
-        op = o; term = e;
+        op = o; term = e; type = o.result;
     }
 
     public void display(int k) {
@@ -526,154 +697,190 @@ class Unary implements Expression {
     }
 }
 
-class Operator {
+enum Operator {
     // Operator = BooleanOp | RelationalOp | ArithmeticOp | UnaryOp
+    // The parser produces the untyped operators; TypeTransformer maps
+    // each to one of the typed operators below, which carry their arity,
+    // operand and result types, and the function Semantics applies.
     // BooleanOp = && | ||
-    final static String AND = "&&";
-    final static String OR = "||";
+    AND("&&"), OR("||"),
     // RelationalOp = < | <= | == | != | >= | >
-    final static String LT = "<";
-    final static String LE = "<=";
-    final static String EQ = "==";
-    final static String NE = "!=";
-    final static String GT = ">";
-    final static String GE = ">=";
-    // ArithmeticOp = + | - | * | /
-    final static String PLUS = "+";
-    final static String MINUS = "-";
-    final static String TIMES = "*";
-    final static String DIV = "/";
-    // UnaryOp = ! | -
-    final static String NOT = "!";
-    final static String NEG = "-";
+    LT("<"), LE("<="), EQ("=="), NE("!="), GT(">"), GE(">="),
+    // ArithmeticOp = + | - | * | /, and UnaryOp - (see NEG)
+    PLUS("+"), MINUS("-"), TIMES("*"), DIV("/"),
+    // UnaryOp = !
+    NOT("!", Type.BOOL, Type.BOOL, v -> new BoolValue(!v.boolValue())),
     // CastOp = int | float | char
-    final static String INT = "int";
-    final static String FLOAT = "float";
-    final static String CHAR = "char";
+    INT("int"), FLOAT("float"), CHAR("char"),
     // Typed Operators
     // RelationalOp = < | <= | == | != | >= | >
-    final static String INT_LT = "INT<";
-    final static String INT_LE = "INT<=";
-    final static String INT_EQ = "INT==";
-    final static String INT_NE = "INT!=";
-    final static String INT_GT = "INT>";
-    final static String INT_GE = "INT>=";
+    INT_LT("INT<", Type.INT, Type.BOOL, (a, b) -> new BoolValue(a.intValue() < b.intValue())),
+    INT_LE("INT<=", Type.INT, Type.BOOL, (a, b) -> new BoolValue(a.intValue() <= b.intValue())),
+    INT_EQ("INT==", Type.INT, Type.BOOL, (a, b) -> new BoolValue(a.intValue() == b.intValue())),
+    INT_NE("INT!=", Type.INT, Type.BOOL, (a, b) -> new BoolValue(a.intValue() != b.intValue())),
+    INT_GT("INT>", Type.INT, Type.BOOL, (a, b) -> new BoolValue(a.intValue() > b.intValue())),
+    INT_GE("INT>=", Type.INT, Type.BOOL, (a, b) -> new BoolValue(a.intValue() >= b.intValue())),
     // ArithmeticOp = + | - | * | /
-    final static String INT_PLUS = "INT+";
-    final static String INT_MINUS = "INT-";
-    final static String INT_TIMES = "INT*";
-    final static String INT_DIV = "INT/";
+    INT_PLUS("INT+", Type.INT, Type.INT, (a, b) -> new IntValue(a.intValue() + b.intValue())),
+    INT_MINUS("INT-", Type.INT, Type.INT, (a, b) -> new IntValue(a.intValue() - b.intValue())),
+    INT_TIMES("INT*", Type.INT, Type.INT, (a, b) -> new IntValue(a.intValue() * b.intValue())),
+    INT_DIV("INT/", Type.INT, Type.INT, (a, b) -> new IntValue(divide(a.intValue(), b.intValue()))),
     // UnaryOp = -
-    final static String INT_NEG = "-";
+    INT_NEG("INT_NEG", Type.INT, Type.INT, v -> new IntValue(-v.intValue())),
     // RelationalOp = < | <= | == | != | >= | >
-    final static String FLOAT_LT = "FLOAT<";
-    final static String FLOAT_LE = "FLOAT<=";
-    final static String FLOAT_EQ = "FLOAT==";
-    final static String FLOAT_NE = "FLOAT!=";
-    final static String FLOAT_GT = "FLOAT>";
-    final static String FLOAT_GE = "FLOAT>=";
+    FLOAT_LT("FLOAT<", Type.FLOAT, Type.BOOL, (a, b) -> new BoolValue(a.floatValue() < b.floatValue())),
+    FLOAT_LE("FLOAT<=", Type.FLOAT, Type.BOOL, (a, b) -> new BoolValue(a.floatValue() <= b.floatValue())),
+    FLOAT_EQ("FLOAT==", Type.FLOAT, Type.BOOL, (a, b) -> new BoolValue(a.floatValue() == b.floatValue())),
+    FLOAT_NE("FLOAT!=", Type.FLOAT, Type.BOOL, (a, b) -> new BoolValue(a.floatValue() != b.floatValue())),
+    FLOAT_GT("FLOAT>", Type.FLOAT, Type.BOOL, (a, b) -> new BoolValue(a.floatValue() > b.floatValue())),
+    FLOAT_GE("FLOAT>=", Type.FLOAT, Type.BOOL, (a, b) -> new BoolValue(a.floatValue() >= b.floatValue())),
     // ArithmeticOp = + | - | * | /
-    final static String FLOAT_PLUS = "FLOAT+";
-    final static String FLOAT_MINUS = "FLOAT-";
-    final static String FLOAT_TIMES = "FLOAT*";
-    final static String FLOAT_DIV = "FLOAT/";
+    FLOAT_PLUS("FLOAT+", Type.FLOAT, Type.FLOAT, (a, b) -> new FloatValue(a.floatValue() + b.floatValue())),
+    FLOAT_MINUS("FLOAT-", Type.FLOAT, Type.FLOAT, (a, b) -> new FloatValue(a.floatValue() - b.floatValue())),
+    FLOAT_TIMES("FLOAT*", Type.FLOAT, Type.FLOAT, (a, b) -> new FloatValue(a.floatValue() * b.floatValue())),
+    FLOAT_DIV("FLOAT/", Type.FLOAT, Type.FLOAT, (a, b) -> new FloatValue(a.floatValue() / b.floatValue())),
     // UnaryOp = -
-    final static String FLOAT_NEG = "-";
-    // RelationalOp = < | <= | == | != | >= | >
-    final static String CHAR_LT = "CHAR<";
-    final static String CHAR_LE = "CHAR<=";
-    final static String CHAR_EQ = "CHAR==";
-    final static String CHAR_NE = "CHAR!=";
-    final static String CHAR_GT = "CHAR>";
-    final static String CHAR_GE = "CHAR>=";
-    // RelationalOp = && | ||
-    final static String BOOL_AND = "BOOL&&";
-    final static String BOOL_OR = "BOOL||";
+    FLOAT_NEG("FLOAT_NEG", Type.FLOAT, Type.FLOAT, v -> new FloatValue(-v.floatValue())),
     // RelationalOp = < | <= | == | != | >= | >
-    final static String BOOL_LT = "BOOL<";
-    final static String BOOL_LE = "BOOL<=";
-    final static String BOOL_EQ = "BOOL==";
-    final static String BOOL_NE = "BOOL!=";
-    final static String BOOL_GT = "BOOL>";
-    final static String BOOL_GE = "BOOL>=";
+    CHAR_LT("CHAR<", Type.CHAR, Type.BOOL, (a, b) -> new BoolValue(a.charValue() < b.charValue())),
+    CHAR_LE("CHAR<=", Type.CHAR, Type.BOOL, (a, b) -> new BoolValue(a.charValue() <= b.charValue())),
+    CHAR_EQ("CHAR==", Type.CHAR, Type.BOOL, (a, b) -> new BoolValue(a.charValue() == b.charValue())),
+    CHAR_NE("CHAR!=", Type.CHAR, Type.BOOL, (a, b) -> new BoolValue(a.charValue() != b.charValue())),
+    CHAR_GT("CHAR>", Type.CHAR, Type.BOOL, (a, b) -> new BoolValue(a.charValue() > b.charValue())),
+    CHAR_GE("CHAR>=", Type.CHAR, Type.BOOL, (a, b) -> new BoolValue(a.charValue() >= b.charValue())),
+    // BooleanOp = && | ||
+    BOOL_AND("BOOL&&", Type.BOOL, Type.BOOL, (a, b) -> new BoolValue(a.boolValue() && b.boolValue())),
+    BOOL_OR("BOOL||", Type.BOOL, Type.BOOL, (a, b) -> new BoolValue(a.boolValue() || b.boolValue())),
+    // RelationalOp = < | <= | == | != | >= | >; only == and != are executable
+    BOOL_LT("BOOL<", Type.BOOL, Type.BOOL, (BinaryFunction)null),
+    BOOL_LE("BOOL<=", Type.BOOL, Type.BOOL, (BinaryFunction)null),
+    BOOL_EQ("BOOL==", Type.BOOL, Type.BOOL, (a, b) -> new BoolValue(a.boolValue() == b.boolValue())),
+    BOOL_NE("BOOL!=", Type.BOOL, Type.BOOL, (a, b) -> new BoolValue(a.boolValue() != b.boolValue())),
+    BOOL_GT("BOOL>", Type.BOOL, Type.BOOL, (BinaryFunction)null),
+    BOOL_GE("BOOL>=", Type.BOOL, Type.BOOL, (BinaryFunction)null),
     // Type specific cast
-    final static String I2F = "I2F";
-    final static String F2I = "F2I";
-    final static String C2I = "C2I";
-    final static String I2C = "I2C";
+    I2F("I2F", Type.INT, Type.FLOAT, v -> new FloatValue((float)v.intValue())),
+    F2I("F2I", Type.FLOAT, Type.INT, v -> new IntValue((int)v.floatValue())),
+    C2I("C2I", Type.CHAR, Type.INT, v -> new IntValue((int)v.charValue())),
+    I2C("I2C", Type.INT, Type.CHAR, v -> new CharValue((char)v.intValue()));
+
+    // UnaryOp = - is spelled like MINUS and parsed as it
+    final static Operator NEG = MINUS;
 
-    String val;
+    interface BinaryFunction { Value apply(Value v1, Value v2); }
 
-    Operator(String s) { val = s; }
+    interface UnaryFunction { Value apply(Value v); }
+
+    final String val;
+    // 0 for the untyped operators
+    final int arity;
+    final Type operand, result;
+    final BinaryFunction binary;
+    final UnaryFunction unary;
+
+    Operator(String s) {
+        this(s, 0, null, null, null, null);
+    }
+
+    Operator(String s, Type t, Type r, BinaryFunction f) {
+        this(s, 2, t, r, f, null);
+    }
+
+    Operator(String s, Type t, Type r, UnaryFunction f) {
+        this(s, 1, t, r, null, f);
+    }
+
+    Operator(String s, int n, Type t, Type r, BinaryFunction b, UnaryFunction u) {
+        val = s; arity = n; operand = t; result = r; binary = b; unary = u;
+    }
 
     public String toString() { return val; }
-    public boolean equals(Object obj) { return val.equals(obj); }
 
-    boolean BooleanOp() { return val.equals(AND) || val.equals(OR); }
+    // integer division, as every backend does it
+    static int divide(int a, int b) {
+        StaticTypeCheck.check(b != 0, "division by zero");
+        return a / b;
+    }
+
+    boolean BooleanOp() { return this == AND || this == OR; }
     boolean RelationalOp() {
-        return val.equals(LT) || val.equals(LE) || val.equals(EQ)
-            || val.equals(NE) || val.equals(GT) || val.equals(GE);
+        return this == LT || this == LE || this == EQ
+            || this == NE || this == GT || this == GE;
     }
     boolean ArithmeticOp() {
-        return val.equals(PLUS) || val.equals(MINUS)
-            || val.equals(TIMES) || val.equals(DIV);
-    }
-    boolean NotOp() { return val.equals(NOT); }
-    boolean NegateOp() { return val.equals(NEG); }
-    boolean intOp() { return val.equals(INT); }
-    boolean floatOp() { return val.equals(FLOAT); }
-    boolean charOp() { return val.equals(CHAR); }
-
-    final static String intMap[][] = {
-        {PLUS, INT_PLUS}, {MINUS, INT_MINUS},
-        {TIMES, INT_TIMES}, {DIV, INT_DIV},
-        {EQ, INT_EQ}, {NE, INT_NE}, {LT, INT_LT},
-        {LE, INT_LE}, {GT, INT_GT}, {GE, INT_GE},
-        {NEG, INT_NEG}, {FLOAT, I2F}, {CHAR, I2C}
-    };
-
-    final static String floatMap[][] = {
-        {PLUS, FLOAT_PLUS}, {MINUS, FLOAT_MINUS},
-        {TIMES, FLOAT_TIMES}, {DIV, FLOAT_DIV},
-        {EQ, FLOAT_EQ}, {NE, FLOAT_NE}, {LT, FLOAT_LT},
-        {LE, FLOAT_LE}, {GT, FLOAT_GT}, {GE, FLOAT_GE},
-        {NEG, FLOAT_NEG}, {INT, F2I}
-    };
-
-    final static String charMap[][] = {
-        {EQ, CHAR_EQ}, {NE, CHAR_NE}, {LT, CHAR_LT},
-        {LE, CHAR_LE}, {GT, CHAR_GT}, {GE, CHAR_GE},
-        {INT, C2I}
-    };
-
-    final static String boolMap[][] = {
-        {EQ, BOOL_EQ}, {NE, BOOL_NE}, {LT, BOOL_LT},
-        {LE, BOOL_LE}, {GT, BOOL_GT}, {GE, BOOL_GE},
-        {AND, BOOL_AND}, {OR, BOOL_OR}
-    };
-
-    final static private Operator map(String[][] tmap, String op) {
-        for (int i = 0; i < tmap.length; i++)
-            if (tmap[i][0].equals(op))
-                return new Operator(tmap[i][1]);
-        assert false : "should never reach here";
-        return null;
+        return this == PLUS || this == MINUS
+            || this == TIMES || this == DIV;
+    }
+    boolean NotOp() { return this == NOT; }
+    boolean NegateOp() { return this == NEG; }
+    boolean intOp() { return this == INT; }
+    boolean floatOp() { return this == FLOAT; }
+    boolean charOp() { return this == CHAR; }
+
+    // typed operator for each untyped one, indexed by ordinal
+    final static private Operator[] intMap = map(
+        PLUS, INT_PLUS, MINUS, INT_MINUS,
+        TIMES, INT_TIMES, DIV, INT_DIV,
+        EQ, INT_EQ, NE, INT_NE, LT, INT_LT,
+        LE, INT_LE, GT, INT_GT, GE, INT_GE,
+        FLOAT, I2F, CHAR, I2C);
+
+    final static private Operator[] floatMap = map(
+        PLUS, FLOAT_PLUS, MINUS, FLOAT_MINUS,
+        TIMES, FLOAT_TIMES, DIV, FLOAT_DIV,
+        EQ, FLOAT_EQ, NE, FLOAT_NE, LT, FLOAT_LT,
+        LE, FLOAT_LE, GT, FLOAT_GT, GE, FLOAT_GE,
+        INT, F2I);
+
+    final static private Operator[] charMap = map(
+        EQ, CHAR_EQ, NE, CHAR_NE, LT, CHAR_LT,
+        LE, CHAR_LE, GT, CHAR_GT, GE, CHAR_GE,
+        INT, C2I);
+
+    final static private Operator[] boolMap = map(
+        EQ, BOOL_EQ, NE, BOOL_NE, LT, BOOL_LT,
+        LE, BOOL_LE, GT, BOOL_GT, GE, BOOL_GE,
+        AND, BOOL_AND, OR, BOOL_OR, NOT, NOT);
+
+    final static private HashMap<String, Operator> spellings = new HashMap<String, Operator>();
+    static {
+        for (Operator op : values())
+            spellings.put(op.val, op);
+    }
+
+    final static private Operator[] map(Operator... pairs) {
+        Operator[] tmap = new Operator[values().length];
+        for (int i = 0; i < pairs.length; i += 2)
+            tmap[pairs[i].ordinal()] = pairs[i + 1];
+        return tmap;
+    }
+
+    final static private Operator map(Operator[] tmap, Operator op) {
+        assert tmap[op.ordinal()] != null : "should never reach here";
+        return tmap[op.ordinal()];
+    }
+
+    // the operator spelled s
+    final static public Operator of(String s) {
+        Operator op = spellings.get(s);
+        assert op != null : "should never reach here";
+        return op;
     }
 
-    final static public Operator intMap(String op) {
-        return map(intMap, op);
+    public Operator intMap() {
+        return map(intMap, this);
     }
 
-    final static public Operator floatMap(String op) {
-        return map(floatMap, op);
+    public Operator floatMap() {
+        return map(floatMap, this);
     }
 
-    final static public Operator charMap(String op) {
-        return map(charMap, op);
+    public Operator charMap() {
+        return map(charMap, this);
     }
 
-    final static public Operator boolMap(String op) {
-        return map(boolMap, op);
+    public Operator boolMap() {
+        return map(boolMap, this);
     }
 
     public void display(int k) {
@@ -0,0 +1,279 @@
+import java.util.*;
+
+public class Arena {
+    // A transformed and resolved Program packed into parallel arrays, one
+    // entry per node rather than one object: its kind, the ordinal of its
+    // Operator, and three ints a, b, c whose meaning depends on the kind.
+    //
+    //     ASSIGN   a target, b source
+    //     BLOCK    b first of c statements in lists
+    //     COND     a test, b then branch, c else branch
+    //     LOOP     a test, b body
+    //     CALL     a function index, b first of c arguments in lists
+    //     RETURN   a result
+    //     BINARY   a, b terms; UNARY a term
+    //
+    // Variables and literals take no entry: where an expression is
+    // expected, a negative int is the leaf ~(n << 2 | LOCAL), GLOBAL or
+    // CONST, for slot n or the nth of the constants, which holds each
+    // literal once. Functions keep their declarations and the node of
+    // their body, so once packed the node objects can be collected; the
+    // Arena is built once per compiled program (see Benchmark.prepare).
+    // run() walks the arrays as Semantics walks the objects, M for
+    // statements and E for expressions, with the same state and trace.
+    // Nothing in an Arena changes after it is built, so threads can run
+    // one at the same time.
+    final static byte SKIP = 0;
+    final static byte BLOCK = 1;
+    final static byte ASSIGN = 2;
+    final static byte COND = 3;
+    final static byte LOOP = 4;
+    final static byte CALL = 5;
+    final static byte RETURN = 6;
+    final static byte BINARY = 7;
+    final static byte UNARY = 8;
+    // leaf tags
+    final static int LOCAL = 0;
+    final static int GLOBAL = 1;
+    final static int CONST = 2;
+
+    private final static String[] names = {
+        "SKIP", "BLOCK", "ASSIGN", "COND", "LOOP", "CALL", "RETURN", "BINARY", "UNARY" };
+    private final static Operator[] operators = Operator.values();
+
+    private byte[] kind = new byte[256];
+    private byte[] op = new byte[256];
+    private int[] a = new int[256], b = new int[256], c = new int[256];
+    private int size = 0;
+    private int[] lists = new int[64];
+    private int listSize = 0;
+    private Value[] constants = new Value[16];
+    private int constantCount = 0;
+    private HashMap<String, Integer> pool = new HashMap<String, Integer>();
+
+    private final Declarations globals;
+    private final Declarations[] params, locals;
+    private final Type[] types;
+    private final int[] bodies;
+    private final int main;
+    boolean trace = true;
+
+    Arena(Program p) {
+        globals = p.globals;
+        int n = p.functions.size();
+        params = new Declarations[n];
+        locals = new Declarations[n];
+        types = new Type[n];
+        bodies = new int[n];
+        for (int i = 0; i < n; i++) {
+            Function f = p.functions.get(i);
+            params[i] = f.params;
+            locals[i] = f.locals;
+            types[i] = f.type;
+            bodies[i] = A(f.body);
+        }
+        main = p.functions.indexOf(p.functions.getFunction(Token.mainTok.toString()));
+        kind = Arrays.copyOf(kind, size);
+        op = Arrays.copyOf(op, size);
+        a = Arrays.copyOf(a, size);
+        b = Arrays.copyOf(b, size);
+        c = Arrays.copyOf(c, size);
+        lists = Arrays.copyOf(lists, listSize);
+        constants = Arrays.copyOf(constants, constantCount);
+        pool = null;
+    }
+
+    private int node(byte k, Operator o, int x, int y, int z) {
+        if (size == kind.length) {
+            kind = Arrays.copyOf(kind, 2 * size);
+            op = Arrays.copyOf(op, 2 * size);
+            a = Arrays.copyOf(a, 2 * size);
+            b = Arrays.copyOf(b, 2 * size);
+            c = Arrays.copyOf(c, 2 * size);
+        }
+        kind[size] = k;
+        op[size] = o == null ? 0 : (byte)o.ordinal();
+        a[size] = x; b[size] = y; c[size] = z;
+        return size++;
+    }
+
+    // the nodes, packed already, as a run in lists
+    private int list(int[] nodes) {
+        while (listSize + nodes.length > lists.length)
+            lists = Arrays.copyOf(lists, 2 * lists.length);
+        System.arraycopy(nodes, 0, lists, listSize, nodes.length);
+        listSize += nodes.length;
+        return listSize - nodes.length;
+    }
+
+    int A(Statement s) {
+        if (s instanceof Skip) return node(SKIP, null, 0, 0, 0);
+        if (s instanceof Assignment) {
+            Assignment as = (Assignment)s;
+            return node(ASSIGN, null, A(as.target), A(as.source), 0);
+        }
+        if (s instanceof Block) {
+            Block bl = (Block)s;
+            int[] nodes = new int[bl.size()];
+            for (int i = 0; i < nodes.length; i++)
+                nodes[i] = A(bl.get(i));
+            return node(BLOCK, null, 0, list(nodes), nodes.length);
+        }
+        if (s instanceof Conditional) {
+            Conditional cd = (Conditional)s;
+            return node(COND, null, A(cd.test), A(cd.thenbranch), A(cd.elsebranch));
+        }
+        if (s instanceof Loop) {
+            Loop l = (Loop)s;
+            return node(LOOP, null, A(l.test), A(l.body), 0);
+        }
+        if (s instanceof Call) return A((Expression)s);
+        if (s instanceof Return) return node(RETURN, null, A(((Return)s).result), 0, 0);
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    int A(Expression e) {
+        if (e instanceof Value) {
+            Value v = (Value)e;
+            Integer n = pool.get(v.type() + " " + v);
+            if (n == null) {
+                if (constantCount == constants.length)
+                    constants = Arrays.copyOf(constants, 2 * constantCount);
+                constants[constantCount] = v;
+                n = constantCount++;
+                pool.put(v.type() + " " + v, n);
+            }
+            return ~(n << 2 | CONST);
+        }
+        if (e instanceof Variable) {
+            Variable v = (Variable)e;
+            return ~(v.slot << 2 | (v.global ? GLOBAL : LOCAL));
+        }
+        if (e instanceof Binary) {
+            Binary bi = (Binary)e;
+            return node(BINARY, bi.op, A(bi.term1), A(bi.term2), 0);
+        }
+        if (e instanceof Unary) return node(UNARY, ((Unary)e).op, A(((Unary)e).term), 0, 0);
+        if (e instanceof Call) {
+            Call cl = (Call)e;
+            int[] nodes = new int[cl.args.size()];
+            for (int i = 0; i < nodes.length; i++)
+                nodes[i] = A(cl.args.get(i));
+            return node(CALL, null, cl.index, list(nodes), nodes.length);
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    State run() {
+        State state = new State(globals);
+        state.trace = trace;
+        state.push(new Frame(params[main], locals[main], types[main]));
+        M(bodies[main], state);
+        return state;
+    }
+
+    void M(int s, State state) {
+        switch (kind[s]) {
+            case SKIP:
+                return;
+            case ASSIGN: {
+                Value v = E(b[s], state);
+                int t = ~a[s];
+                ((t & 3) == GLOBAL ? state.globals() : state.top()).slots[t >> 2] = v;
+                if (trace) state.display();
+                return;
+            }
+            case BLOCK:
+                for (int i = b[s], end = i + c[s]; i < end; i++) {
+                    if (state.top().returned) break;
+                    M(lists[i], state);
+                }
+                return;
+            case COND:
+                M(E(a[s], state).boolValue() ? b[s] : c[s], state);
+                return;
+            case LOOP:
+                while (E(a[s], state).boolValue()) {
+                    M(b[s], state);
+                    Semantics.interrupted();
+                    if (state.top().returned) break;
+                }
+                return;
+            case CALL:
+                E(s, state);
+                return;
+            case RETURN: {
+                Frame top = state.top();
+                top.result = E(a[s], state);
+                top.returned = true;
+                return;
+            }
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    Value E(int e, State state) {
+        if (e < 0) {
+            int leaf = ~e;
+            switch (leaf & 3) {
+                case LOCAL:
+                    return state.local(leaf >> 2);
+                case GLOBAL:
+                    return state.global(leaf >> 2);
+                default:
+                    return constants[leaf >> 2];
+            }
+        }
+        switch (kind[e]) {
+            case BINARY: {
+                Value v1 = E(a[e], state), v2 = E(b[e], state);
+                Operator o = operators[op[e]];
+                StaticTypeCheck.check(!v1.isUndef() && !v2.isUndef(), "reference to undef value");
+                if (o.binary == null) throw new IllegalArgumentException("should never reach here");
+                return o.binary.apply(v1, v2);
+            }
+            case UNARY: {
+                Value v = E(a[e], state);
+                Operator o = operators[op[e]];
+                StaticTypeCheck.check(!v.isUndef(), "reference to undef value");
+                if (o.unary == null) throw new IllegalArgumentException("should never reach here");
+                return o.unary.apply(v);
+            }
+            case CALL: {
+                Semantics.interrupted();
+                int f = a[e];
+                Frame frame = new Frame(params[f], locals[f], types[f]);
+                for (int i = 0; i < c[e]; i++)
+                    frame.slots[i] = E(lists[b[e] + i], state);
+                Frame caller = state.push(frame);
+                M(bodies[f], state);
+                state.pop(caller);
+                return frame.result;
+            }
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    public void display(int k) {
+        for (int f = 0; f < bodies.length; f++) {
+            for (int w = 0; w < k; w++) {
+                System.out.print("\t");
+            }
+            System.out.println("Function " + f + ": body " + bodies[f]);
+        }
+        for (int i = 0; i < size; i++) {
+            for (int w = 0; w < k + 1; w++) {
+                System.out.print("\t");
+            }
+            String o = kind[i] == BINARY || kind[i] == UNARY ? " " + operators[op[i]] : "";
+            System.out.println(i + ": " + names[kind[i]] + o + " " + ref(a[i]) + " " + ref(b[i]) + " " + c[i]);
+        }
+    }
+
+    private String ref(int e) {
+        if (e >= 0) return "" + e;
+        int leaf = ~e;
+        if ((leaf & 3) == CONST) return "'" + constants[leaf >> 2] + "'";
+        return ((leaf & 3) == GLOBAL ? "global " : "local ") + (leaf >> 2);
+    }
+}
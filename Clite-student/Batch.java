@@ -0,0 +1,113 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+public class Batch {
+    // Runs many independent Clite programs in one JVM: each goes through
+    // the same front end and optimizations as Benchmark and is executed
+    // untraced. Programs run on a fixed pool of limit threads, which also
+    // bounds how many compiled programs are alive at once, and so the
+    // heap. (The JDK this builds with has no virtual threads; the pool
+    // uses platform threads with the Server's large stacks.) The keyword
+    // and operator tables are static and shared by every program.
+    //
+    //     java Batch [-limit n] [-mode m] (directory | file...)
+    static class Result {
+        final String name;
+        boolean ok;
+        // the final state, or the diagnostics
+        String output;
+        long compile, run;
+
+        Result(String n) { name = n; }
+
+        public String toString() {
+            return String.format("%-24s %-5s compile %5.1f ms  run %7.1f ms  %s", name,
+                ok ? "ok" : "error", compile / 1e6, run / 1e6, output.replace("\n", "; "));
+        }
+    }
+
+    static Result run(String fileName, String mode) {
+        Result r = new Result(fileName);
+        long start = System.nanoTime();
+        try {
+            Supplier<State> prog = Benchmark.prepare(Benchmark.compile(new Lexer(fileName), false), mode);
+            r.compile = System.nanoTime() - start;
+            start = System.nanoTime();
+            r.output = prog.get().toString();
+            r.ok = true;
+        } catch (DiagnosticException e) {
+            r.output = e.getMessage();
+        } catch (StackOverflowError e) {
+            r.output = "stack overflow";
+        } catch (RuntimeException e) {
+            r.output = "internal error: " + e;
+        }
+        if (r.ok) r.run = System.nanoTime() - start;
+        else if (r.compile == 0) r.compile = System.nanoTime() - start;
+        return r;
+    }
+
+    // the results in the order of files
+    static List<Result> run(List<String> files, String mode, int limit) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(limit, Threads.daemon("batch", Server.STACK));
+        List<Future<Result>> futures = new ArrayList<Future<Result>>();
+        for (String f : files)
+            futures.add(pool.submit(() -> run(f, mode)));
+        List<Result> results = new ArrayList<Result>();
+        try {
+            for (Future<Result> f : futures)
+                results.add(f.get());
+        } catch (ExecutionException e) {
+            // an Error other than a stack overflow
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        return results;
+    }
+
+    // the .cpp files of a directory, or the files named
+    static List<String> sources(List<String> args) {
+        List<String> files = new ArrayList<String>();
+        for (String a : args) {
+            File d = new File(a);
+            if (!d.isDirectory()) {
+                files.add(a);
+                continue;
+            }
+            String[] names = d.list((dir, n) -> n.endsWith(".cpp"));
+            Arrays.sort(names);
+            for (String n : names)
+                files.add(new File(d, n).getPath());
+        }
+        return files;
+    }
+
+    public static void main(String args[]) throws InterruptedException {
+        int limit = Runtime.getRuntime().availableProcessors();
+        String mode = "-walk";
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-limit")) limit = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-mode")) mode = args[++i];
+            else names.add(args[i]);
+        }
+        if (names.isEmpty()) names.add("programs");
+        long start = System.nanoTime();
+        List<Result> results = run(sources(names), mode, limit);
+        long wall = System.nanoTime() - start;
+        long compile = 0, run = 0;
+        int failed = 0;
+        for (Result r : results) {
+            System.out.println(r);
+            compile += r.compile;
+            run += r.run;
+            if (!r.ok) failed++;
+        }
+        System.out.printf("%d programs, %d failed, %d threads: wall %.1f ms, compile %.1f ms, run %.1f ms%n",
+            results.size(), failed, limit, wall / 1e6, compile / 1e6, run / 1e6);
+        System.exit(failed == 0 ? 0 : 1);
+    }
+}
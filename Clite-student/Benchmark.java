@@ -0,0 +1,97 @@
+import java.util.function.*;
+
+public class Benchmark {
+    // Runs a Clite program repeatedly with tracing off and reports how long
+    // each execution takes. The run happens on a thread with a small fixed
+    // stack, so a loop that grows the Java stack per iteration fails here.
+    // Given a thread count, that many threads run the one compiled program
+    // at the same time.
+    static final int STACK = 256 * 1024;
+
+    static Program compile(String fileName) {
+        // big generated sources lex in parts on every core as they parse
+        int cores = Runtime.getRuntime().availableProcessors();
+        return compile(new TokenBuffer(new Lexer(fileName).split(cores)), true);
+    }
+
+    // the front end and optimizations for an untraced run
+    static Program compile(TokenStream lexer, boolean display) {
+        Program prog;
+        try {
+            prog = new Parser(lexer).program();
+        } finally {
+            lexer.close();
+        }
+        Program out = new ConstantFolder().F(Resolver.R(TypeTransformer.VT(prog, display)));
+        return new LoopOptimizer().L(new DeadCodeEliminator().E(out)).freeze();
+    }
+
+    // prog ready to run untraced in mode. For -flat it is packed here, once,
+    // and only the Arena is kept, so the object AST can be collected.
+    static Supplier<State> prepare(Program prog, String mode) {
+        if (mode.equals("-flat")) {
+            Arena arena = new Arena(prog);
+            arena.trace = false;
+            return arena::run;
+        }
+        return () -> execute(prog, mode);
+    }
+
+    static State execute(Program prog, String mode) {
+        if (mode.equals("-closures")) {
+            ClosureCompiler compiled = new ClosureCompiler(prog);
+            compiled.trace = false;
+            return compiled.run();
+        }
+        if (mode.equals("-vm")) {
+            VM vm = new VM(prog);
+            vm.trace = false;
+            return vm.run();
+        }
+        if (mode.equals("-regvm")) {
+            RegisterVM vm = new RegisterVM(prog);
+            vm.trace = false;
+            return vm.run();
+        }
+        Semantics semantics = new Semantics();
+        semantics.trace = false;
+        semantics.tiered = mode.equals("-jit");
+        return semantics.M(prog);
+    }
+
+    static void run(Supplier<State> prog, int runs, String label) {
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            State state = prog.get();
+            long elapsed = System.nanoTime() - start;
+            System.out.println(label + "run " + (i + 1) + ": " + elapsed / 1000000 + " ms");
+            if (i == runs - 1) state.display();
+        }
+    }
+
+    public static void main(String args[]) throws InterruptedException {
+        String fileName = args.length > 0 ? args[0] : "programs/count.cpp";
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        String mode = args.length > 2 ? args[2] : "-walk";
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+        try {
+            Supplier<State> prog = prepare(compile(fileName), mode);
+            Thread[] ts = new Thread[threads];
+            for (int k = 0; k < threads; k++) {
+                String label = threads > 1 ? "thread " + (k + 1) + " " : "";
+                ts[k] = new Thread(null, () -> {
+                    try {
+                        run(prog, runs, label);
+                    } catch (DiagnosticException e) {
+                        e.exit();
+                    }
+                }, "benchmark", STACK);
+                ts[k].start();
+            }
+            for (Thread t : ts)
+                t.join();
+        } catch (DiagnosticException e) {
+            e.exit();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+public class Bytecode {
+    // Bytecode = Function function; int[] code; Value[] constants
+    // One Bytecode per Function. Opcodes that take an operand read it from
+    // the next code word: CONST constant index, LOAD/STORE/GLOAD/GSTORE
+    // slot, JUMP/JUMP_FALSE target pc, CALL function index.
+    final static int CONST = 0;
+    final static int LOAD = 1;
+    final static int STORE = 2;
+    final static int GLOAD = 3;
+    final static int GSTORE = 4;
+    final static int JUMP = 5;
+    final static int JUMP_FALSE = 6;
+    final static int CALL = 7;
+    final static int RET = 8;
+    final static int END = 9;
+    final static int POP = 10;
+    // ArithmeticOp, RelationalOp = INT_* | FLOAT_* | CHAR_* | BOOL_*
+    final static int INT_PLUS = 11;
+    final static int INT_MINUS = 12;
+    final static int INT_TIMES = 13;
+    final static int INT_DIV = 14;
+    final static int INT_LT = 15;
+    final static int INT_LE = 16;
+    final static int INT_EQ = 17;
+    final static int INT_NE = 18;
+    final static int INT_GT = 19;
+    final static int INT_GE = 20;
+    final static int FLOAT_PLUS = 21;
+    final static int FLOAT_MINUS = 22;
+    final static int FLOAT_TIMES = 23;
+    final static int FLOAT_DIV = 24;
+    final static int FLOAT_LT = 25;
+    final static int FLOAT_LE = 26;
+    final static int FLOAT_EQ = 27;
+    final static int FLOAT_NE = 28;
+    final static int FLOAT_GT = 29;
+    final static int FLOAT_GE = 30;
+    final static int CHAR_LT = 31;
+    final static int CHAR_LE = 32;
+    final static int CHAR_EQ = 33;
+    final static int CHAR_NE = 34;
+    final static int CHAR_GT = 35;
+    final static int CHAR_GE = 36;
+    final static int BOOL_AND = 37;
+    final static int BOOL_OR = 38;
+    final static int BOOL_EQ = 39;
+    final static int BOOL_NE = 40;
+    // UnaryOp, CastOp
+    final static int NOT = 41;
+    final static int INT_NEG = 42;
+    final static int FLOAT_NEG = 43;
+    final static int I2F = 44;
+    final static int F2I = 45;
+    final static int C2I = 46;
+    final static int I2C = 47;
+
+    // the operator opcodes, from INT_PLUS on, in order
+    final static Operator operators[] = {
+        Operator.INT_PLUS, Operator.INT_MINUS, Operator.INT_TIMES, Operator.INT_DIV,
+        Operator.INT_LT, Operator.INT_LE, Operator.INT_EQ,
+        Operator.INT_NE, Operator.INT_GT, Operator.INT_GE,
+        Operator.FLOAT_PLUS, Operator.FLOAT_MINUS, Operator.FLOAT_TIMES, Operator.FLOAT_DIV,
+        Operator.FLOAT_LT, Operator.FLOAT_LE, Operator.FLOAT_EQ,
+        Operator.FLOAT_NE, Operator.FLOAT_GT, Operator.FLOAT_GE,
+        Operator.CHAR_LT, Operator.CHAR_LE, Operator.CHAR_EQ,
+        Operator.CHAR_NE, Operator.CHAR_GT, Operator.CHAR_GE,
+        Operator.BOOL_AND, Operator.BOOL_OR, Operator.BOOL_EQ, Operator.BOOL_NE,
+        Operator.NOT, Operator.INT_NEG, Operator.FLOAT_NEG,
+        Operator.I2F, Operator.F2I, Operator.C2I, Operator.I2C
+    };
+
+    final static String names[] = new String[INT_PLUS + operators.length];
+    final static int opcodes[] = new int[Operator.values().length];
+    static {
+        String[] fixed = {
+            "CONST", "LOAD", "STORE", "GLOAD", "GSTORE", "JUMP", "JUMP_FALSE",
+            "CALL", "RET", "END", "POP"
+        };
+        System.arraycopy(fixed, 0, names, 0, INT_PLUS);
+        for (int i = 0; i < operators.length; i++) {
+            names[INT_PLUS + i] = operators[i].val;
+            opcodes[operators[i].ordinal()] = INT_PLUS + i;
+        }
+    }
+
+    Function function;
+    int[] code;
+    Value[] constants;
+    int maxStack;
+
+    Bytecode(Function f, int[] c, Value[] k, int m) {
+        function = f; code = c; constants = k; maxStack = m;
+    }
+
+    static boolean hasOperand(int op) {
+        return op <= CALL;
+    }
+
+    static int opcode(Operator op) {
+        if (opcodes[op.ordinal()] == 0) throw new IllegalArgumentException("should never reach here");
+        return opcodes[op.ordinal()];
+    }
+
+    public void display(int k) {
+        for (int w = 0; w < k; w++) {
+            System.out.print("\t");
+        }
+        System.out.println("Bytecode: <" + function.id + ", stack " + maxStack + ">");
+        for (int pc = 0; pc < code.length; pc++) {
+            for (int w = 0; w < k + 1; w++) {
+                System.out.print("\t");
+            }
+            int op = code[pc];
+            System.out.print(pc + ":\t" + names[op]);
+            if (op == CONST) System.out.print("\t" + constants[code[++pc]]);
+            else if (hasOperand(op)) System.out.print("\t" + code[++pc]);
+            System.out.println();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+import java.util.*;
+
+public class BytecodeCompiler {
+    // Compiles each Function of a transformed and resolved Program into
+    // Bytecode for the stack machine in VM.
+    private int[] code = new int[64];
+    private int size = 0;
+    private ArrayList<Value> constants = new ArrayList<Value>();
+    private int depth = 0, maxDepth = 0;
+
+    public static Bytecode[] C(Program p) {
+        Bytecode[] out = new Bytecode[p.functions.size()];
+        for (int i = 0; i < out.length; i++)
+            out[i] = new BytecodeCompiler().C(p.functions.get(i));
+        return out;
+    }
+
+    Bytecode C(Function f) {
+        C(f.body);
+        emit(Bytecode.END, 0);
+        return new Bytecode(f, Arrays.copyOf(code, size),
+            constants.toArray(new Value[constants.size()]), maxDepth);
+    }
+
+    // effect is the change in operand stack depth
+    private void emit(int op, int effect) {
+        if (size == code.length) code = Arrays.copyOf(code, 2 * size);
+        code[size++] = op;
+        depth += effect;
+        if (depth > maxDepth) maxDepth = depth;
+    }
+
+    private void emit(int op, int operand, int effect) {
+        emit(op, effect);
+        emit(operand, 0);
+    }
+
+    private void patch(int at) {
+        code[at] = size;
+    }
+
+    void C(Statement s) {
+        if (s instanceof Skip) return;
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment)s;
+            C(a.source);
+            emit(a.target.global ? Bytecode.GSTORE : Bytecode.STORE, a.target.slot, -1);
+            return;
+        }
+        if (s instanceof Block) {
+            for (Statement stmt : (Block)s)
+                C(stmt);
+            return;
+        }
+        if (s instanceof Conditional) {
+            Conditional c = (Conditional)s;
+            C(c.test);
+            emit(Bytecode.JUMP_FALSE, 0, -1);
+            int toElse = size - 1;
+            C(c.thenbranch);
+            emit(Bytecode.JUMP, 0, 0);
+            int toEnd = size - 1;
+            patch(toElse);
+            C(c.elsebranch);
+            patch(toEnd);
+            return;
+        }
+        if (s instanceof Loop) {
+            Loop l = (Loop)s;
+            int top = size;
+            C(l.test);
+            emit(Bytecode.JUMP_FALSE, 0, -1);
+            int toEnd = size - 1;
+            C(l.body);
+            emit(Bytecode.JUMP, top, 0);
+            patch(toEnd);
+            return;
+        }
+        if (s instanceof Call) {
+            C((Expression)s);
+            emit(Bytecode.POP, -1);
+            return;
+        }
+        if (s instanceof Return) {
+            C(((Return)s).result);
+            emit(Bytecode.RET, -1);
+            return;
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    void C(Expression e) {
+        if (e instanceof Value) {
+            constants.add((Value)e);
+            emit(Bytecode.CONST, constants.size() - 1, 1);
+            return;
+        }
+        if (e instanceof Variable) {
+            Variable v = (Variable)e;
+            emit(v.global ? Bytecode.GLOAD : Bytecode.LOAD, v.slot, 1);
+            return;
+        }
+        if (e instanceof Binary) {
+            Binary b = (Binary)e;
+            C(b.term1);
+            C(b.term2);
+            emit(Bytecode.opcode(b.op), -1);
+            return;
+        }
+        if (e instanceof Unary) {
+            Unary u = (Unary)e;
+            C(u.term);
+            emit(Bytecode.opcode(u.op), 0);
+            return;
+        }
+        if (e instanceof Call) {
+            Call c = (Call)e;
+            for (Expression a : c.args)
+                C(a);
+            emit(Bytecode.CALL, c.index, 1 - c.args.size());
+            return;
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+}
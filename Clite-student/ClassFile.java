@@ -0,0 +1,100 @@
+import java.io.*;
+import java.util.*;
+
+public class ClassFile {
+    // Minimal JVM class file writer for JitCompiler: a constant pool,
+    // public static methods with a Code attribute, nothing else. Classes
+    // are written as version 49 so the JVM verifies them by type inference
+    // and no StackMapTable has to be computed.
+    private ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private DataOutputStream cp = new DataOutputStream(pool);
+    private int count = 1;
+    private HashMap<String, Integer> entries = new HashMap<String, Integer>();
+
+    private ByteArrayOutputStream methods = new ByteArrayOutputStream();
+    private DataOutputStream ms = new DataOutputStream(methods);
+    private int methodCount = 0;
+
+    private String name;
+
+    ClassFile(String n) { name = n; }
+
+    private int entry(String key, int tag, Object... data) {
+        Integer index = entries.get(key);
+        if (index != null) return index;
+        try {
+            cp.writeByte(tag);
+            for (Object d : data) {
+                if (d instanceof String) cp.writeUTF((String)d);
+                else if (d instanceof Float) cp.writeFloat((Float)d);
+                else if (tag == 3) cp.writeInt((Integer)d);
+                else cp.writeShort((Integer)d);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        entries.put(key, count);
+        return count++;
+    }
+
+    int utf8(String s) { return entry("U" + s, 1, s); }
+
+    int integer(int v) { return entry("I" + v, 3, v); }
+
+    int floating(float v) { return entry("F" + Float.floatToRawIntBits(v), 4, v); }
+
+    int classRef(String c) { return entry("C" + c, 7, utf8(c)); }
+
+    int nameAndType(String n, String d) {
+        return entry("N" + n + ":" + d, 12, utf8(n), utf8(d));
+    }
+
+    int methodRef(String c, String n, String d) {
+        return entry("M" + c + "." + n + ":" + d, 10, classRef(c), nameAndType(n, d));
+    }
+
+    void method(String n, String desc, byte[] code, int maxStack, int maxLocals) {
+        try {
+            ms.writeShort(0x0009); // public static
+            ms.writeShort(utf8(n));
+            ms.writeShort(utf8(desc));
+            ms.writeShort(1);
+            ms.writeShort(utf8("Code"));
+            ms.writeInt(12 + code.length);
+            ms.writeShort(maxStack);
+            ms.writeShort(maxLocals);
+            ms.writeInt(code.length);
+            ms.write(code);
+            ms.writeShort(0); // exception table
+            ms.writeShort(0); // attributes
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        methodCount++;
+    }
+
+    byte[] toByteArray() {
+        int self = classRef(name);
+        int sup = classRef("java/lang/Object");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(count);
+            pool.writeTo(out);
+            out.writeShort(0x0021); // public super
+            out.writeShort(self);
+            out.writeShort(sup);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(methodCount);
+            methods.writeTo(out);
+            out.writeShort(0); // attributes
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,220 @@
+public class ClosureCompiler {
+    // Compiles a transformed and resolved Program into a tree of closures.
+    // Operators, variable slots and call targets are decided once here, so
+    // running the result does no instanceof dispatch and no operator
+    // string comparison.
+    interface Code { Value eval(State state); }
+    // returns true once a return statement has executed
+    interface Action { boolean run(State state); }
+
+    interface IntOp { int apply(int a, int b); }
+    interface IntTest { boolean apply(int a, int b); }
+    interface FloatOp { float apply(float a, float b); }
+    interface FloatTest { boolean apply(float a, float b); }
+    interface CharTest { boolean apply(char a, char b); }
+    interface BoolOp { boolean apply(boolean a, boolean b); }
+
+    private Program program;
+    private Action[] bodies;
+    boolean trace = true;
+
+    ClosureCompiler(Program p) {
+        program = p;
+        bodies = new Action[p.functions.size()];
+        for (int i = 0; i < bodies.length; i++)
+            bodies[i] = C(p.functions.get(i).body);
+    }
+
+    State run() {
+        State state = new State(program.globals);
+        state.trace = trace;
+        Function main = program.functions.getFunction(Token.mainTok.toString());
+        state.push(new Frame(main));
+        bodies[program.functions.indexOf(main)].run(state);
+        return state;
+    }
+
+    static void defined(Value v) {
+        StaticTypeCheck.check(!v.isUndef(), "reference to undef value");
+    }
+
+    static void defined(Value v1, Value v2) {
+        StaticTypeCheck.check(!v1.isUndef() && !v2.isUndef(), "reference to undef value");
+    }
+
+    Action C(Statement s) {
+        if (s instanceof Skip) return state -> false;
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment)s;
+            Variable target = a.target;
+            Code source = C(a.source);
+            return state -> { state.onion(target, source.eval(state)); return false; };
+        }
+        if (s instanceof Block) {
+            Block b = (Block)s;
+            Action[] members = new Action[b.size()];
+            for (int i = 0; i < members.length; i++)
+                members[i] = C(b.get(i));
+            return state -> {
+                for (Action m : members)
+                    if (m.run(state)) return true;
+                return false;
+            };
+        }
+        if (s instanceof Loop) {
+            Loop l = (Loop)s;
+            Code test = C(l.test);
+            Action body = C(l.body);
+            return state -> {
+                while (test.eval(state).boolValue())
+                    if (body.run(state)) return true;
+                return false;
+            };
+        }
+        if (s instanceof Conditional) {
+            Conditional c = (Conditional)s;
+            Code test = C(c.test);
+            Action thenbranch = C(c.thenbranch);
+            Action elsebranch = C(c.elsebranch);
+            return state -> test.eval(state).boolValue()
+                ? thenbranch.run(state) : elsebranch.run(state);
+        }
+        if (s instanceof Call) {
+            Code call = C((Expression)s);
+            return state -> { call.eval(state); return false; };
+        }
+        if (s instanceof Return) {
+            Code result = C(((Return)s).result);
+            return state -> { state.top().result = result.eval(state); return true; };
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    Code C(Expression e) {
+        if (e instanceof Value) {
+            Value v = (Value)e;
+            return state -> v;
+        }
+        if (e instanceof Variable) {
+            int slot = ((Variable)e).slot;
+            if (((Variable)e).global) return state -> state.global(slot);
+            return state -> state.local(slot);
+        }
+        if (e instanceof Binary) {
+            Binary b = (Binary)e;
+            return binary(b.op, C(b.term1), C(b.term2));
+        }
+        if (e instanceof Unary) {
+            Unary u = (Unary)e;
+            return unary(u.op, C(u.term));
+        }
+        if (e instanceof Call) {
+            Call c = (Call)e;
+            Function f = program.functions.get(c.index);
+            int index = c.index;
+            Code[] args = new Code[c.args.size()];
+            for (int i = 0; i < args.length; i++)
+                args[i] = C(c.args.get(i));
+            return state -> {
+                Frame frame = new Frame(f);
+                for (int i = 0; i < args.length; i++)
+                    frame.slots[i] = args[i].eval(state);
+                Frame caller = state.push(frame);
+                bodies[index].run(state);
+                state.pop(caller);
+                return frame.result;
+            };
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    Code binary(Operator op, Code l, Code r) {
+        switch (op) {
+            case INT_PLUS: return ints(l, r, (a, b) -> a + b);
+            case INT_MINUS: return ints(l, r, (a, b) -> a - b);
+            case INT_TIMES: return ints(l, r, (a, b) -> a * b);
+            case INT_DIV: return ints(l, r, Operator::divide);
+            case INT_LT: return intRel(l, r, (a, b) -> a < b);
+            case INT_LE: return intRel(l, r, (a, b) -> a <= b);
+            case INT_EQ: return intRel(l, r, (a, b) -> a == b);
+            case INT_NE: return intRel(l, r, (a, b) -> a != b);
+            case INT_GT: return intRel(l, r, (a, b) -> a > b);
+            case INT_GE: return intRel(l, r, (a, b) -> a >= b);
+            case FLOAT_PLUS: return floats(l, r, (a, b) -> a + b);
+            case FLOAT_MINUS: return floats(l, r, (a, b) -> a - b);
+            case FLOAT_TIMES: return floats(l, r, (a, b) -> a * b);
+            case FLOAT_DIV: return floats(l, r, (a, b) -> a / b);
+            case FLOAT_LT: return floatRel(l, r, (a, b) -> a < b);
+            case FLOAT_LE: return floatRel(l, r, (a, b) -> a <= b);
+            case FLOAT_EQ: return floatRel(l, r, (a, b) -> a == b);
+            case FLOAT_NE: return floatRel(l, r, (a, b) -> a != b);
+            case FLOAT_GT: return floatRel(l, r, (a, b) -> a > b);
+            case FLOAT_GE: return floatRel(l, r, (a, b) -> a >= b);
+            case CHAR_LT: return charRel(l, r, (a, b) -> a < b);
+            case CHAR_LE: return charRel(l, r, (a, b) -> a <= b);
+            case CHAR_EQ: return charRel(l, r, (a, b) -> a == b);
+            case CHAR_NE: return charRel(l, r, (a, b) -> a != b);
+            case CHAR_GT: return charRel(l, r, (a, b) -> a > b);
+            case CHAR_GE: return charRel(l, r, (a, b) -> a >= b);
+            case BOOL_AND: return bools(l, r, (a, b) -> a && b);
+            case BOOL_OR: return bools(l, r, (a, b) -> a || b);
+            case BOOL_EQ: return bools(l, r, (a, b) -> a == b);
+            case BOOL_NE: return bools(l, r, (a, b) -> a != b);
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    Code unary(Operator op, Code t) {
+        Operator.UnaryFunction f = op.unary;
+        if (f == null) throw new IllegalArgumentException("should never reach here");
+        return state -> { Value v = t.eval(state); defined(v); return f.apply(v); };
+    }
+
+    static Code ints(Code l, Code r, IntOp f) {
+        return state -> {
+            Value a = l.eval(state), b = r.eval(state);
+            defined(a, b);
+            return new IntValue(f.apply(a.intValue(), b.intValue()));
+        };
+    }
+
+    static Code intRel(Code l, Code r, IntTest f) {
+        return state -> {
+            Value a = l.eval(state), b = r.eval(state);
+            defined(a, b);
+            return new BoolValue(f.apply(a.intValue(), b.intValue()));
+        };
+    }
+
+    static Code floats(Code l, Code r, FloatOp f) {
+        return state -> {
+            Value a = l.eval(state), b = r.eval(state);
+            defined(a, b);
+            return new FloatValue(f.apply(a.floatValue(), b.floatValue()));
+        };
+    }
+
+    static Code floatRel(Code l, Code r, FloatTest f) {
+        return state -> {
+            Value a = l.eval(state), b = r.eval(state);
+            defined(a, b);
+            return new BoolValue(f.apply(a.floatValue(), b.floatValue()));
+        };
+    }
+
+    static Code charRel(Code l, Code r, CharTest f) {
+        return state -> {
+            Value a = l.eval(state), b = r.eval(state);
+            defined(a, b);
+            return new BoolValue(f.apply(a.charValue(), b.charValue()));
+        };
+    }
+
+    static Code bools(Code l, Code r, BoolOp f) {
+        return state -> {
+            Value a = l.eval(state), b = r.eval(state);
+            defined(a, b);
+            return new BoolValue(f.apply(a.boolValue(), b.boolValue()));
+        };
+    }
+}
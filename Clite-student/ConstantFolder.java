@@ -0,0 +1,161 @@
+public class ConstantFolder {
+    // Runs after Resolver.R(Program): folds Binary and Unary nodes whose
+    // operands are literals, including the conversions TypeTransformer
+    // inserts, and drops identity operations (x+0, x*1, x/1, -(-x), !!b).
+    // An operation reports a reference to an undef operand, so an identity
+    // is only dropped when the operand it leaves behind is certainly
+    // defined: a literal, another operation, or a local assigned on every
+    // path so far. Division by a literal zero is left for run time.
+    int removed = 0;
+    private boolean[] defined;
+
+    Program F(Program p) {
+        Functions out = new Functions();
+        for (Function f : p.functions) {
+            // arguments may be undef, so parameters start out unknown
+            defined = new boolean[f.params.size() + f.locals.size()];
+            Block b = (Block)F(f.body);
+            out.add(new Function(f.type, f.id, f.params, f.locals, b));
+        }
+        return new Program(p.globals, out);
+    }
+
+    Statement F(Statement s) {
+        if (s instanceof Skip) return s;
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment)s;
+            Expression source = F(a.source);
+            DefiniteAssignment.assign(a, defined);
+            return Statement.at(new Assignment(a.target, source), a);
+        }
+        if (s instanceof Conditional) {
+            Conditional c = (Conditional)s;
+            Expression test = F(c.test);
+            boolean[] before = defined;
+            defined = before.clone();
+            Statement thenbranch = F(c.thenbranch);
+            boolean[] then = defined;
+            defined = before.clone();
+            Statement elsebranch = F(c.elsebranch);
+            DefiniteAssignment.join(c, defined, then);
+            return Statement.at(new Conditional(test, thenbranch, elsebranch), c);
+        }
+        if (s instanceof Loop) {
+            Loop l = (Loop)s;
+            // The body may not run at all, and what it assigns may be undef
+            // on the next iteration. Folding leaves what is defined as it
+            // was, so the flags at the test can be found on the body as is.
+            DefiniteAssignment.loop(l.body, defined);
+            boolean[] entry = defined.clone();
+            Statement body = F(l.body);
+            defined = entry;
+            return Statement.at(new Loop(F(l.test), body), l);
+        }
+        if (s instanceof Block) {
+            Block out = new Block();
+            for (Statement stmt : (Block)s)
+                out.add(F(stmt));
+            return out;
+        }
+        if (s instanceof Call) return F((Call)s);
+        if (s instanceof Return) {
+            Return r = (Return)s;
+            return Statement.at(new Return(r.target, F(r.result)), r);
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    Call F(Call c) {
+        Expressions args = new Expressions();
+        for (Expression e : c.args)
+            args.add(F(e));
+        Call out = Statement.at(new Call(c.name, args, c.index), c);
+        out.type = c.type;
+        return out;
+    }
+
+    Expression F(Expression e) {
+        if (e instanceof Value) return e;
+        if (e instanceof Variable) return e;
+        if (e instanceof Binary) {
+            Binary b = (Binary)e;
+            return fold(b.op, F(b.term1), F(b.term2));
+        }
+        if (e instanceof Unary) {
+            Unary u = (Unary)e;
+            return fold(u.op, F(u.term));
+        }
+        if (e instanceof Call) return F((Call)e);
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    boolean isDefined(Expression e) {
+        return DefiniteAssignment.isDefined(e, defined);
+    }
+
+    static boolean isLiteral(Expression e, double k) {
+        if (!(e instanceof Value) || ((Value)e).isUndef()) return false;
+        Value v = (Value)e;
+        if (v.type() == Type.INT) return v.intValue() == k;
+        if (v.type() == Type.FLOAT) return Float.compare(v.floatValue(), (float)k) == 0;
+        return false;
+    }
+
+    static boolean isLiteral(Expression e, boolean k) {
+        return e instanceof Value && ((Value)e).type() == Type.BOOL
+            && !((Value)e).isUndef() && ((Value)e).boolValue() == k;
+    }
+
+    Expression fold(Operator op, Expression t1, Expression t2) {
+        if (t1 instanceof Value && t2 instanceof Value && op.binary != null
+                && !((Value)t1).isUndef() && !((Value)t2).isUndef()
+                && !(op == Operator.INT_DIV && isLiteral(t2, 0))) {
+            removed += 2;
+            return op.binary.apply((Value)t1, (Value)t2);
+        }
+        Expression keep = null;
+        switch (op) {
+            case INT_PLUS:
+                if (isLiteral(t2, 0)) keep = t1;
+                else if (isLiteral(t1, 0)) keep = t2;
+                break;
+            case INT_MINUS: case FLOAT_MINUS:
+                // x - 0.0 is x for every float, -0.0 included; x + 0.0 is not
+                if (isLiteral(t2, 0)) keep = t1;
+                break;
+            case INT_TIMES: case FLOAT_TIMES:
+                if (isLiteral(t2, 1)) keep = t1;
+                else if (isLiteral(t1, 1)) keep = t2;
+                break;
+            case INT_DIV: case FLOAT_DIV:
+                if (isLiteral(t2, 1)) keep = t1;
+                break;
+            case BOOL_AND:
+                if (isLiteral(t2, true)) keep = t1;
+                else if (isLiteral(t1, true)) keep = t2;
+                break;
+            case BOOL_OR:
+                if (isLiteral(t2, false)) keep = t1;
+                else if (isLiteral(t1, false)) keep = t2;
+                break;
+        }
+        if (keep != null && isDefined(keep)) {
+            removed += 2;
+            return keep;
+        }
+        return new Binary(op, t1, t2);
+    }
+
+    Expression fold(Operator op, Expression t) {
+        if (t instanceof Value && !((Value)t).isUndef() && op.unary != null) {
+            removed += 1;
+            return op.unary.apply((Value)t);
+        }
+        if ((op == Operator.INT_NEG || op == Operator.FLOAT_NEG || op == Operator.NOT)
+                && t instanceof Unary && ((Unary)t).op == op && isDefined(((Unary)t).term)) {
+            removed += 2;
+            return ((Unary)t).term;
+        }
+        return new Unary(op, t);
+    }
+}
@@ -0,0 +1,162 @@
+import java.util.*;
+
+public class DeadCodeEliminator {
+    // Runs per Function after ConstantFolder. Replaces a Conditional whose
+    // test is a literal by the branch it takes, drops a Loop whose test is
+    // literal false, and drops statements after a Return in a Block.
+    // With stores on it also removes assignments to locals that are not
+    // live afterwards, found by backward liveness over the statement tree.
+    // The trace shows every assignment, so stores are only removed for
+    // untraced runs. main's locals stay live at its end, where the final
+    // state shows them; globals are always live.
+    boolean stores = true;
+    int removed = 0;
+
+    private int slots;
+    private boolean main;
+    // whether an assignment's source can neither fail nor call a function
+    private IdentityHashMap<Assignment, Boolean> pure = new IdentityHashMap<Assignment, Boolean>();
+
+    Program E(Program p) {
+        Functions out = new Functions();
+        for (Function f : p.functions) {
+            slots = f.params.size() + f.locals.size();
+            main = f.id.equals(Token.mainTok.toString());
+            if (stores) pure(f.body, new boolean[slots]);
+            Block b = (Block)E(f.body, exit());
+            out.add(new Function(f.type, f.id, f.params, f.locals, b));
+        }
+        pure.clear();
+        return new Program(p.globals, out);
+    }
+
+    // locals live when the function returns
+    private boolean[] exit() {
+        boolean[] live = new boolean[slots];
+        if (main) Arrays.fill(live, true);
+        return live;
+    }
+
+    // Rewrites s given the locals live after it; live is updated in place
+    // to the locals live before the result.
+    Statement E(Statement s, boolean[] live) {
+        if (s instanceof Skip) return s;
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment)s;
+            if (stores && !a.target.global && !live[a.target.slot] && pure.get(a)) {
+                removed++;
+                return new Skip();
+            }
+            if (!a.target.global) live[a.target.slot] = false;
+            uses(a.source, live);
+            return a;
+        }
+        if (s instanceof Conditional) {
+            Conditional c = (Conditional)s;
+            if (c.test instanceof Value && !((Value)c.test).isUndef()) {
+                removed++;
+                return E(((Value)c.test).boolValue() ? c.thenbranch : c.elsebranch, live);
+            }
+            boolean[] other = live.clone();
+            Statement thenbranch = E(c.thenbranch, live);
+            Statement elsebranch = E(c.elsebranch, other);
+            for (int i = 0; i < slots; i++)
+                live[i] = live[i] || other[i];
+            uses(c.test, live);
+            return Statement.at(new Conditional(c.test, thenbranch, elsebranch), c);
+        }
+        if (s instanceof Loop) {
+            Loop l = (Loop)s;
+            if (l.test instanceof Value && !((Value)l.test).isUndef()
+                    && !((Value)l.test).boolValue()) {
+                removed++;
+                return new Skip();
+            }
+            // live at the test: live after the loop, or at the top of the body
+            boolean[] head = live.clone();
+            uses(l.test, head);
+            while (true) {
+                boolean[] next = head.clone();
+                live(l.body, next);
+                uses(l.test, next);
+                for (int i = 0; i < slots; i++)
+                    next[i] = next[i] || head[i];
+                if (Arrays.equals(next, head)) break;
+                head = next;
+            }
+            Statement body = E(l.body, head.clone());
+            System.arraycopy(head, 0, live, 0, slots);
+            return Statement.at(new Loop(l.test, body), l);
+        }
+        if (s instanceof Block) {
+            Block b = (Block)s;
+            int end = b.size();
+            for (int i = 0; i < end; i++)
+                if (Statement.returns(b.get(i))) {
+                    removed += b.size() - i - 1;
+                    end = i + 1;
+                }
+            Statement[] out = new Statement[end];
+            for (int i = end - 1; i >= 0; i--)
+                out[i] = E(b.get(i), live);
+            Block block = new Block();
+            for (Statement stmt : out)
+                if (!(stmt instanceof Skip)) block.add(stmt);
+            return block;
+        }
+        if (s instanceof Call) {
+            uses((Call)s, live);
+            return s;
+        }
+        if (s instanceof Return) {
+            boolean[] exit = exit();
+            System.arraycopy(exit, 0, live, 0, slots);
+            uses(((Return)s).result, live);
+            return s;
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    // liveness only, without rewriting
+    private void live(Statement s, boolean[] live) {
+        boolean saved = stores;
+        int count = removed;
+        stores = false;
+        E(s, live);
+        stores = saved;
+        removed = count;
+    }
+
+    static void uses(Expression e, boolean[] live) {
+        if (e instanceof Variable) {
+            Variable v = (Variable)e;
+            if (!v.global) live[v.slot] = true;
+        } else if (e instanceof Binary) {
+            uses(((Binary)e).term1, live); uses(((Binary)e).term2, live);
+        } else if (e instanceof Unary) uses(((Unary)e).term, live);
+        else if (e instanceof Call)
+            for (Expression a : ((Call)e).args) uses(a, live);
+    }
+
+    // Forward pass over definite assignment: marks the assignments whose
+    // source cannot report an undef reference, divide by zero or call.
+    private void pure(Statement s, boolean[] defined) {
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment)s;
+            pure.put(a, DefiniteAssignment.safe(a.source, defined));
+            DefiniteAssignment.assign(a, defined);
+        } else if (s instanceof Block) {
+            for (Statement m : (Block)s)
+                pure(m, defined);
+        } else if (s instanceof Conditional) {
+            Conditional c = (Conditional)s;
+            boolean[] then = defined.clone();
+            pure(c.thenbranch, then);
+            pure(c.elsebranch, defined);
+            DefiniteAssignment.join(c, defined, then);
+        } else if (s instanceof Loop) {
+            DefiniteAssignment.loop(((Loop)s).body, defined);
+            pure(((Loop)s).body, defined.clone());
+        }
+    }
+}
@@ -0,0 +1,100 @@
+public class DefiniteAssignment {
+    // Definite assignment over the locals of one function, shared by the
+    // passes that must leave every undef reference where it was:
+    // ConstantFolder, DeadCodeEliminator, LoopOptimizer and JitCompiler.
+    // defined holds a flag per slot. A local is defined while its latest
+    // assignment certainly gave it a defined value; after a Conditional
+    // only if it is on every branch that does not return, and after a
+    // Loop only if it is before the loop. Globals never are.
+
+    // Checks what s evaluates, given the flags where it evaluates it; used
+    // by JitCompiler, whose compiled code has no undef values.
+    interface Reads { void check(Statement s, boolean[] defined); }
+
+    // an expression that evaluates to a defined value or reports an error
+    static boolean isDefined(Expression e, boolean[] defined) {
+        if (e instanceof Value) return !((Value)e).isUndef();
+        if (e instanceof Variable) {
+            Variable v = (Variable)e;
+            return !v.global && defined[v.slot];
+        }
+        return e instanceof Binary || e instanceof Unary;
+    }
+
+    // an expression that can neither fail nor call a function
+    static boolean safe(Expression e, boolean[] defined) {
+        if (e instanceof Value || e instanceof Variable) return true;
+        if (e instanceof Binary) {
+            Binary b = (Binary)e;
+            if (b.op == Operator.INT_DIV
+                    && !(b.term2 instanceof Value && ((Value)b.term2).intValue() != 0))
+                return false;
+            return safe(b.term1, defined) && safe(b.term2, defined)
+                && isDefined(b.term1, defined) && isDefined(b.term2, defined);
+        }
+        if (e instanceof Unary) {
+            Unary u = (Unary)e;
+            return safe(u.term, defined) && isDefined(u.term, defined);
+        }
+        return false;
+    }
+
+    // the flags after a, given those before it
+    static void assign(Assignment a, boolean[] defined) {
+        if (!a.target.global) defined[a.target.slot] = isDefined(a.source, defined);
+    }
+
+    // Joins the flags after c's branches into defined, which holds those
+    // after its else branch; then holds those after its then branch.
+    static void join(Conditional c, boolean[] defined, boolean[] then) {
+        boolean t = Statement.returns(c.thenbranch), e = Statement.returns(c.elsebranch);
+        for (int i = 0; i < Math.min(defined.length, then.length); i++)
+            defined[i] = (then[i] || t) && (defined[i] || e);
+    }
+
+    // the flags after s, given those before it
+    static void definite(Statement s, boolean[] defined) {
+        definite(s, defined, null);
+    }
+
+    // With reads, each statement is checked before it runs; all it reads
+    // is then defined, so a local is defined once it is assigned.
+    static void definite(Statement s, boolean[] defined, Reads reads) {
+        if (reads != null) reads.check(s, defined);
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment)s;
+            if (reads == null) assign(a, defined);
+            else if (!a.target.global) defined[a.target.slot] = true;
+        } else if (s instanceof Block) {
+            for (Statement m : (Block)s)
+                definite(m, defined, reads);
+        } else if (s instanceof Conditional) {
+            Conditional c = (Conditional)s;
+            boolean[] then = defined.clone();
+            definite(c.thenbranch, then, reads);
+            definite(c.elsebranch, defined, reads);
+            join(c, defined, then);
+        } else if (s instanceof Loop) {
+            // with reads nothing assigned becomes undef, so nothing narrows
+            if (reads == null) loop(((Loop)s).body, defined);
+            else definite(((Loop)s).body, defined.clone(), reads);
+        }
+    }
+
+    // Narrows defined, before a loop, to the locals defined at the top of
+    // its body on every iteration: those defined before the loop and after
+    // the body. They are also the ones defined after the loop.
+    static void loop(Statement body, boolean[] defined) {
+        while (true) {
+            boolean[] after = defined.clone();
+            definite(body, after);
+            boolean changed = false;
+            for (int i = 0; i < defined.length; i++)
+                if (defined[i] && !after[i]) {
+                    defined[i] = false;
+                    changed = true;
+                }
+            if (!changed) return;
+        }
+    }
+}
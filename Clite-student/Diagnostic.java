@@ -0,0 +1,77 @@
+import java.util.*;
+
+public class Diagnostic {
+    // An error found in a Clite program, placed at a line and column when
+    // it is known where; line is 0 otherwise.
+    final String message;
+    final int line, column;
+
+    Diagnostic(String msg) { this(msg, 0, 0); }
+
+    Diagnostic(String msg, int l, int c) { message = msg; line = l; column = c; }
+
+    public String toString() {
+        if (line == 0) return message;
+        return line + ":" + column + ": " + message;
+    }
+}
+
+class Diagnostics extends ArrayList<Diagnostic> {
+    // the diagnostics of e, placed at line and column unless they
+    // already have a place
+    void add(DiagnosticException e, int line, int column) {
+        for (Diagnostic d : e.diagnostics)
+            add(d.line == 0 ? new Diagnostic(d.message, line, column) : d);
+    }
+
+    void add(DiagnosticException e, Statement s) {
+        add(e, Statement.line(s), Statement.column(s));
+    }
+
+    // throws the diagnostics collected, if there are any
+    void report() {
+        if (!isEmpty()) throw new DiagnosticException(this);
+    }
+}
+
+class DiagnosticException extends RuntimeException {
+    // Thrown for errors in a Clite program instead of ending the process,
+    // so the toolchain can run inside a longer-lived JVM. The command line
+    // drivers catch it and exit as they always have.
+    final Diagnostics diagnostics;
+
+    DiagnosticException(String msg) { this(new Diagnostic(msg)); }
+
+    DiagnosticException(Diagnostic d) { this(one(d)); }
+
+    DiagnosticException(Diagnostics ds) {
+        super(String.join("\n", ds.stream().map(Diagnostic::toString).toArray(String[]::new)),
+            null, false, false);
+        diagnostics = ds;
+    }
+
+    // this, with its diagnostics that have no place yet placed at s
+    DiagnosticException at(Statement s) {
+        if (Statement.line(s) == 0) return this;
+        boolean placed = true;
+        for (Diagnostic d : diagnostics)
+            placed &= d.line != 0;
+        if (placed) return this;
+        Diagnostics ds = new Diagnostics();
+        ds.add(this, s);
+        return new DiagnosticException(ds);
+    }
+
+    private static Diagnostics one(Diagnostic d) {
+        Diagnostics ds = new Diagnostics();
+        ds.add(d);
+        return ds;
+    }
+
+    // for the command line drivers
+    void exit() {
+        for (Diagnostic d : diagnostics)
+            System.err.println(d);
+        System.exit(1);
+    }
+}
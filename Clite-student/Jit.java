@@ -0,0 +1,156 @@
+import java.lang.reflect.*;
+import java.util.*;
+
+public class Jit {
+    // Tiered execution for Semantics. Each function counts its invocations
+    // and each loop its back-edges; when a counter crosses its threshold
+    // JitCompiler turns the function, or the rest of the loop, into a JVM
+    // class that HotSpot can compile to machine code. Code the generator
+    // does not support is marked and stays in the interpreter. Compiled
+    // code does not trace, so Semantics only uses this with trace off.
+    int callThreshold = 1000;
+    int loopThreshold = 10000;
+
+    private Program program;
+    private int[] calls;
+    private Method[] compiled;
+    private boolean[] failed;
+    private IdentityHashMap<Loop, Counter> loops = new IdentityHashMap<Loop, Counter>();
+    private Loader loader = new Loader();
+    private int classes = 0;
+
+    static class Counter {
+        int count;
+        boolean failed;
+        Method osr;
+    }
+
+    static class Loader extends ClassLoader {
+        Loader() { super(Jit.class.getClassLoader()); }
+
+        Class<?> define(String name, byte[] b) {
+            return defineClass(name, b, 0, b.length);
+        }
+    }
+
+    Jit(Program p) {
+        program = p;
+        calls = new int[p.functions.size()];
+        compiled = new Method[calls.length];
+        failed = new boolean[calls.length];
+    }
+
+    private Method load(byte[] bytes, String name, String method) {
+        try {
+            Class<?> c = loader.define(name, bytes);
+            for (Method m : c.getMethods())
+                if (m.getName().equals(method)) return m;
+        } catch (LinkageError e) {
+            // a verify error means a generator bug; keep interpreting
+        }
+        return null;
+    }
+
+    private String className() {
+        return "CliteJit" + (classes++);
+    }
+
+    // Runs frame's function natively once it is hot; returns false when
+    // the call has to be interpreted.
+    boolean call(int index, Frame frame) {
+        if (failed[index]) return false;
+        if (compiled[index] == null) {
+            if (++calls[index] < callThreshold) return false;
+            try {
+                String name = className();
+                byte[] bytes = new JitCompiler(program, name).function(index);
+                compiled[index] = load(bytes, name, JitCompiler.methodName(index));
+            } catch (JitCompiler.Unsupported e) { }
+            if (compiled[index] == null) {
+                failed[index] = true;
+                return false;
+            }
+        }
+        Function f = program.functions.get(index);
+        Object[] args = new Object[f.params.size()];
+        for (int i = 0; i < args.length; i++) {
+            Value v = frame.slots[i];
+            if (v.isUndef()) return false;
+            args[i] = unbox(v);
+        }
+        Object result = invoke(compiled[index], args);
+        if (f.type != Type.VOID) frame.result = box(f.type, result);
+        return true;
+    }
+
+    Counter counter(Loop l) {
+        Counter c = loops.get(l);
+        if (c == null) {
+            c = new Counter();
+            loops.put(l, c);
+        }
+        return c;
+    }
+
+    // Called at a back-edge of loop l in function f. Once the loop is hot,
+    // runs its remaining iterations natively and returns true.
+    boolean osr(Function f, Loop l, Counter c, Frame frame) {
+        if (c.failed || ++c.count < loopThreshold) return false;
+        if (c.osr == null) {
+            try {
+                String name = className();
+                c.osr = load(new JitCompiler(program, name).loop(f, l), name, "loop");
+            } catch (JitCompiler.Unsupported e) { }
+            if (c.osr == null) {
+                c.failed = true;
+                return false;
+            }
+        }
+        boolean[] used = new boolean[frame.slots.length];
+        JitCompiler.uses(l, used);
+        int[] ints = new int[used.length];
+        float[] floats = new float[used.length];
+        for (int s = 0; s < used.length; s++) {
+            if (!used[s]) continue;
+            Value v = frame.slots[s];
+            if (v.isUndef()) return false;
+            if (v.type() == Type.FLOAT) floats[s] = v.floatValue();
+            else ints[s] = (Integer)unbox(v);
+        }
+        invoke(c.osr, ints, floats);
+        for (int s = 0; s < used.length; s++) {
+            if (!used[s]) continue;
+            Type t = frame.slots[s].type();
+            frame.slots[s] = box(t, t == Type.FLOAT ? (Object)floats[s] : (Object)ints[s]);
+        }
+        return true;
+    }
+
+    private static Object invoke(Method m, Object... args) {
+        try {
+            return m.invoke(null, args);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            // compiled code divides with IDIV, which throws for a zero divisor
+            if (cause instanceof ArithmeticException) throw new DiagnosticException("division by zero");
+            if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+            if (cause instanceof Error) throw (Error)cause;
+            throw new IllegalStateException(cause);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static Object unbox(Value v) {
+        if (v.type() == Type.FLOAT) return v.floatValue();
+        if (v.type() == Type.CHAR) return (int)v.charValue();
+        return v.intValue();
+    }
+
+    static Value box(Type t, Object o) {
+        if (t == Type.FLOAT) return new FloatValue((Float)o);
+        if (t == Type.BOOL) return new BoolValue((Integer)o != 0);
+        if (t == Type.CHAR) return new CharValue((char)(int)(Integer)o);
+        return new IntValue((Integer)o);
+    }
+}
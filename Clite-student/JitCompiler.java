@@ -0,0 +1,484 @@
+import java.util.*;
+
+public class JitCompiler {
+    // Translates a Function, or a single Loop for on-stack replacement,
+    // from the transformed and resolved AST into a JVM class. Locals map to
+    // JVM local slots and the typed operators map to the native int and
+    // float instructions. Every function the unit calls is compiled into
+    // the same class and reached by invokestatic. Anything the generator
+    // cannot express without the interpreter's undef tracking throws
+    // Unsupported, and Jit keeps interpreting that code.
+    static class Unsupported extends RuntimeException {
+        Unsupported(String msg) { super(msg, null, false, false); }
+    }
+
+    // JVM opcodes
+    final static int ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11, LDC = 0x12, LDC_W = 0x13;
+    final static int ILOAD = 0x15, FLOAD = 0x17, ALOAD = 0x19, IALOAD = 0x2e, FALOAD = 0x30;
+    final static int ISTORE = 0x36, FSTORE = 0x38, IASTORE = 0x4f, FASTORE = 0x51, POP = 0x57;
+    final static int IADD = 0x60, FADD = 0x62, ISUB = 0x64, FSUB = 0x66;
+    final static int IMUL = 0x68, FMUL = 0x6a, IDIV = 0x6c, FDIV = 0x6e;
+    final static int INEG = 0x74, FNEG = 0x76, IAND = 0x7e, IOR = 0x80, IXOR = 0x82;
+    final static int I2F = 0x86, F2I = 0x8b, I2C = 0x92, FCMPL = 0x95, FCMPG = 0x96;
+    final static int IFEQ = 0x99, IFNE = 0x9a, IFLT = 0x9b, IFGE = 0x9c, IFGT = 0x9d, IFLE = 0x9e;
+    final static int IF_ICMPEQ = 0x9f, IF_ICMPNE = 0xa0, IF_ICMPLT = 0xa1;
+    final static int IF_ICMPGE = 0xa2, IF_ICMPGT = 0xa3, IF_ICMPLE = 0xa4;
+    final static int GOTO = 0xa7, IRETURN = 0xac, FRETURN = 0xae, RETURN = 0xb1, INVOKESTATIC = 0xb8;
+
+    private Program program;
+    private ClassFile cf;
+    private String className;
+
+    // state of the method being generated
+    private byte[] code;
+    private int size, depth, maxDepth;
+    private int[] labels;
+    private int labelCount;
+    private ArrayList<int[]> fixups;
+    private Declarations params, locals;
+    private int base;
+
+    JitCompiler(Program p, String name) {
+        program = p;
+        className = name;
+        cf = new ClassFile(name);
+    }
+
+    static String methodName(int index) { return "f" + index; }
+
+    static char kind(Type t) {
+        if (t == Type.FLOAT) return 'F';
+        if (t == Type.VOID) return 'V';
+        return 'I';
+    }
+
+    String descriptor(Function f) {
+        StringBuilder d = new StringBuilder("(");
+        for (Declaration p : f.params)
+            d.append(kind(p.type));
+        return d.append(')').append(kind(f.type)).toString();
+    }
+
+    // Compiles function index and every function reachable from it.
+    byte[] function(int index) {
+        TreeSet<Integer> unit = new TreeSet<Integer>();
+        reach(index, unit);
+        for (int i : unit)
+            function(program.functions.get(i), i);
+        return cf.toByteArray();
+    }
+
+    // Compiles the rest of loop l of function f as static void loop(int[], float[]):
+    // the arrays hold the frame's slots on entry and receive them on exit.
+    byte[] loop(Function f, Loop l) {
+        if (contains(l, Return.class)) throw new Unsupported("return inside loop");
+        TreeSet<Integer> unit = new TreeSet<Integer>();
+        callees(l, unit);
+        for (int i : new ArrayList<Integer>(unit))
+            reach(i, unit);
+        for (int i : unit)
+            function(program.functions.get(i), i);
+
+        begin(f, 2);
+        boolean[] used = new boolean[f.params.size() + f.locals.size()];
+        uses(l, used);
+        for (int s = 0; s < used.length; s++) {
+            if (!used[s]) continue;
+            boolean fl = type(s) == 'F';
+            op(ALOAD, 1); emit(fl ? 1 : 0);
+            push(s);
+            op(fl ? FALOAD : IALOAD, -1);
+            store(s);
+        }
+        C(l, null);
+        for (int s = 0; s < used.length; s++) {
+            if (!used[s]) continue;
+            boolean fl = type(s) == 'F';
+            op(ALOAD, 1); emit(fl ? 1 : 0);
+            push(s);
+            load(s);
+            op(fl ? FASTORE : IASTORE, -3);
+        }
+        op(RETURN, 0);
+        cf.method("loop", "([I[F)V", end(), maxDepth, base + used.length);
+        return cf.toByteArray();
+    }
+
+    private void reach(int index, TreeSet<Integer> unit) {
+        if (!unit.add(index)) return;
+        TreeSet<Integer> calls = new TreeSet<Integer>();
+        callees(program.functions.get(index).body, calls);
+        for (int i : calls)
+            reach(i, unit);
+    }
+
+    private void callees(Statement s, TreeSet<Integer> out) {
+        if (s instanceof Assignment) callees(((Assignment)s).source, out);
+        else if (s instanceof Block)
+            for (Statement m : (Block)s) callees(m, out);
+        else if (s instanceof Conditional) {
+            Conditional c = (Conditional)s;
+            callees(c.test, out); callees(c.thenbranch, out); callees(c.elsebranch, out);
+        } else if (s instanceof Loop) {
+            callees(((Loop)s).test, out); callees(((Loop)s).body, out);
+        } else if (s instanceof Return) callees(((Return)s).result, out);
+        else if (s instanceof Call) callees((Expression)s, out);
+    }
+
+    private void callees(Expression e, TreeSet<Integer> out) {
+        if (e instanceof Binary) {
+            callees(((Binary)e).term1, out); callees(((Binary)e).term2, out);
+        } else if (e instanceof Unary) callees(((Unary)e).term, out);
+        else if (e instanceof Call) {
+            out.add(((Call)e).index);
+            for (Expression a : ((Call)e).args) callees(a, out);
+        }
+    }
+
+    private static boolean contains(Statement s, Class<?> kind) {
+        if (kind.isInstance(s)) return true;
+        if (s instanceof Block) {
+            for (Statement m : (Block)s)
+                if (contains(m, kind)) return true;
+        }
+        if (s instanceof Conditional)
+            return contains(((Conditional)s).thenbranch, kind) || contains(((Conditional)s).elsebranch, kind);
+        if (s instanceof Loop) return contains(((Loop)s).body, kind);
+        return false;
+    }
+
+    // marks every local slot the statement reads or writes
+    static void uses(Statement s, boolean[] used) {
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment)s;
+            uses(a.target, used); uses(a.source, used);
+        } else if (s instanceof Block)
+            for (Statement m : (Block)s) uses(m, used);
+        else if (s instanceof Conditional) {
+            Conditional c = (Conditional)s;
+            uses(c.test, used); uses(c.thenbranch, used); uses(c.elsebranch, used);
+        } else if (s instanceof Loop) {
+            uses(((Loop)s).test, used); uses(((Loop)s).body, used);
+        } else if (s instanceof Return) uses(((Return)s).result, used);
+        else if (s instanceof Call) uses((Expression)s, used);
+    }
+
+    static void uses(Expression e, boolean[] used) {
+        if (e instanceof Variable) {
+            Variable v = (Variable)e;
+            if (v.global) throw new Unsupported("global " + v);
+            used[v.slot] = true;
+        } else if (e instanceof Binary) {
+            uses(((Binary)e).term1, used); uses(((Binary)e).term2, used);
+        } else if (e instanceof Unary) uses(((Unary)e).term, used);
+        else if (e instanceof Call)
+            for (Expression a : ((Call)e).args) uses(a, used);
+    }
+
+    private void function(Function f, int index) {
+        if (f.type != Type.VOID && !Statement.returns(f.body))
+            throw new Unsupported(f.id + " may end without a return");
+        boolean[] defined = new boolean[f.params.size() + f.locals.size()];
+        for (int i = 0; i < f.params.size(); i++)
+            defined[i] = true;
+        DefiniteAssignment.definite(f.body, defined, JitCompiler::reads);
+        begin(f, 0);
+        C(f.body, f);
+        if (f.type == Type.VOID) op(RETURN, 0);
+        cf.method(methodName(index), descriptor(f), end(), maxDepth, defined.length);
+    }
+
+    // Compiled code has no undef values, so every local must be assigned
+    // on every path before it is read.
+    static void reads(Statement s, boolean[] defined) {
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment)s;
+            if (a.target.global) throw new Unsupported("global " + a.target);
+            reads(a.source, defined);
+        } else if (s instanceof Conditional) reads(((Conditional)s).test, defined);
+        else if (s instanceof Loop) reads(((Loop)s).test, defined);
+        else if (s instanceof Return) reads(((Return)s).result, defined);
+        else if (s instanceof Call) reads((Expression)s, defined);
+    }
+
+    static void reads(Expression e, boolean[] defined) {
+        if (e instanceof Variable) {
+            Variable v = (Variable)e;
+            if (v.global) throw new Unsupported("global " + v);
+            if (!defined[v.slot]) throw new Unsupported("possibly undef " + v);
+        } else if (e instanceof Binary) {
+            reads(((Binary)e).term1, defined); reads(((Binary)e).term2, defined);
+        } else if (e instanceof Unary) reads(((Unary)e).term, defined);
+        else if (e instanceof Call)
+            for (Expression a : ((Call)e).args) reads(a, defined);
+    }
+
+    private void begin(Function f, int b) {
+        params = f.params; locals = f.locals; base = b;
+        code = new byte[256];
+        size = 0; depth = 0; maxDepth = 0;
+        labels = new int[16]; labelCount = 0;
+        fixups = new ArrayList<int[]>();
+    }
+
+    private byte[] end() {
+        for (int[] fix : fixups) {
+            int offset = labels[fix[1]] - fix[0];
+            if (offset != (short)offset) throw new Unsupported("branch out of range");
+            code[fix[0] + 1] = (byte)(offset >> 8);
+            code[fix[0] + 2] = (byte)offset;
+        }
+        if (size > 65535) throw new Unsupported("method too large");
+        return Arrays.copyOf(code, size);
+    }
+
+    private void emit(int b) {
+        if (size == code.length) code = Arrays.copyOf(code, 2 * size);
+        code[size++] = (byte)b;
+    }
+
+    private void op(int opcode, int effect) {
+        emit(opcode);
+        depth += effect;
+        if (depth > maxDepth) maxDepth = depth;
+    }
+
+    private int label() {
+        if (labelCount == labels.length) labels = Arrays.copyOf(labels, 2 * labelCount);
+        labels[labelCount] = -1;
+        return labelCount++;
+    }
+
+    private void mark(int label) { labels[label] = size; }
+
+    private void branch(int opcode, int label, int effect) {
+        fixups.add(new int[] {size, label});
+        op(opcode, effect);
+        emit(0); emit(0);
+    }
+
+    private void push(int v) {
+        if (v >= -1 && v <= 5) op(ICONST_0 + v, 1);
+        else if (v == (byte)v) { op(BIPUSH, 1); emit(v); }
+        else if (v == (short)v) { op(SIPUSH, 1); emit(v >> 8); emit(v); }
+        else constant(cf.integer(v));
+    }
+
+    private void constant(int index) {
+        if (index < 256) { op(LDC, 1); emit(index); }
+        else { op(LDC_W, 1); emit(index >> 8); emit(index); }
+    }
+
+    private char type(int slot) {
+        if (slot < params.size()) return kind(params.get(slot).type);
+        return kind(locals.get(slot - params.size()).type);
+    }
+
+    private void load(int slot) {
+        if (base + slot > 255) throw new Unsupported("too many locals");
+        op(type(slot) == 'F' ? FLOAD : ILOAD, 1);
+        emit(base + slot);
+    }
+
+    private void store(int slot) {
+        if (base + slot > 255) throw new Unsupported("too many locals");
+        op(type(slot) == 'F' ? FSTORE : ISTORE, -1);
+        emit(base + slot);
+    }
+
+    // 'I' or 'F': the JVM type an expression evaluates to
+    char type(Expression e) {
+        if (e instanceof Value) return kind(((Value)e).type());
+        if (e instanceof Variable) return type(((Variable)e).slot);
+        if (e instanceof Binary) return kind(((Binary)e).op.result);
+        if (e instanceof Unary) return kind(((Unary)e).op.result);
+        if (e instanceof Call) return kind(program.functions.get(((Call)e).index).type);
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    void C(Statement s, Function f) {
+        if (s instanceof Skip) return;
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment)s;
+            C(a.source);
+            store(a.target.slot);
+            return;
+        }
+        if (s instanceof Block) {
+            for (Statement m : (Block)s) {
+                C(m, f);
+                if (Statement.returns(m)) break;
+            }
+            return;
+        }
+        if (s instanceof Conditional) {
+            Conditional c = (Conditional)s;
+            int otherwise = label(), done = label();
+            test(c.test, otherwise);
+            C(c.thenbranch, f);
+            if (!Statement.returns(c.thenbranch)) branch(GOTO, done, 0);
+            mark(otherwise);
+            C(c.elsebranch, f);
+            mark(done);
+            return;
+        }
+        if (s instanceof Loop) {
+            Loop l = (Loop)s;
+            int top = label(), done = label();
+            mark(top);
+            test(l.test, done);
+            C(l.body, f);
+            if (!Statement.returns(l.body)) branch(GOTO, top, 0);
+            mark(done);
+            return;
+        }
+        if (s instanceof Call) {
+            C((Expression)s);
+            if (type((Expression)s) != 'V') op(POP, -1);
+            return;
+        }
+        if (s instanceof Return) {
+            C(((Return)s).result);
+            op(kind(f.type) == 'F' ? FRETURN : IRETURN, -1);
+            return;
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    // jumps to label when the boolean test is false
+    void test(Expression e, int label) {
+        if (e instanceof Binary) {
+            Binary b = (Binary)e;
+            int jump = intJump(b.op);
+            if (jump != 0) {
+                C(b.term1); C(b.term2);
+                branch(jump, label, -2);
+                return;
+            }
+            int cmp = floatCompare(b.op);
+            if (cmp != 0) {
+                C(b.term1); C(b.term2);
+                op(cmp, -1);
+                branch(floatJump(b.op), label, -1);
+                return;
+            }
+        }
+        C(e);
+        branch(IFEQ, label, -1);
+    }
+
+    // the if_icmp that jumps when an int comparison is false
+    static int intJump(Operator op) {
+        switch (op) {
+            case INT_LT: case CHAR_LT: return IF_ICMPGE;
+            case INT_LE: case CHAR_LE: return IF_ICMPGT;
+            case INT_GT: case CHAR_GT: return IF_ICMPLE;
+            case INT_GE: case CHAR_GE: return IF_ICMPLT;
+            case INT_EQ: case CHAR_EQ: case BOOL_EQ: return IF_ICMPNE;
+            case INT_NE: case CHAR_NE: case BOOL_NE: return IF_ICMPEQ;
+        }
+        return 0;
+    }
+
+    // fcmpg for < and <=, fcmpl otherwise, so NaN makes every test false
+    static int floatCompare(Operator op) {
+        switch (op) {
+            case FLOAT_LT: case FLOAT_LE: return FCMPG;
+            case FLOAT_GT: case FLOAT_GE:
+            case FLOAT_EQ: case FLOAT_NE: return FCMPL;
+        }
+        return 0;
+    }
+
+    static int floatJump(Operator op) {
+        switch (op) {
+            case FLOAT_LT: return IFGE;
+            case FLOAT_LE: return IFGT;
+            case FLOAT_GT: return IFLE;
+            case FLOAT_GE: return IFLT;
+            case FLOAT_EQ: return IFNE;
+            case FLOAT_NE: return IFEQ;
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    void C(Expression e) {
+        if (e instanceof Value) {
+            Value v = (Value)e;
+            if (v.type() == Type.FLOAT) {
+                float x = v.floatValue();
+                if (x == 0.0f && 1 / x > 0) op(0x0b, 1); // fconst_0
+                else if (x == 1.0f) op(0x0c, 1);
+                else if (x == 2.0f) op(0x0d, 1);
+                else constant(cf.floating(x));
+            }
+            else if (v.type() == Type.CHAR) push(v.charValue());
+            else push(v.intValue());
+            return;
+        }
+        if (e instanceof Variable) {
+            load(((Variable)e).slot);
+            return;
+        }
+        if (e instanceof Binary) {
+            Binary b = (Binary)e;
+            int arith = arithmetic(b.op);
+            if (arith != 0) {
+                C(b.term1); C(b.term2);
+                op(arith, -1);
+                return;
+            }
+            // a comparison used as a value: 1 or 0
+            int no = label(), done = label();
+            test(e, no);
+            push(1);
+            branch(GOTO, done, 0);
+            depth--;
+            mark(no);
+            push(0);
+            mark(done);
+            return;
+        }
+        if (e instanceof Unary) {
+            Unary u = (Unary)e;
+            C(u.term);
+            switch (u.op) {
+                case NOT: push(1); op(IXOR, -1); return;
+                case INT_NEG: op(INEG, 0); return;
+                case FLOAT_NEG: op(FNEG, 0); return;
+                case I2F: op(I2F, 0); return;
+                case F2I: op(F2I, 0); return;
+                case C2I: return;
+                case I2C: op(I2C, 0); return;
+            }
+            throw new IllegalArgumentException("should never reach here");
+        }
+        if (e instanceof Call) {
+            Call c = (Call)e;
+            Function callee = program.functions.get(c.index);
+            for (Expression a : c.args)
+                C(a);
+            op(INVOKESTATIC, (kind(callee.type) == 'V' ? 0 : 1) - c.args.size());
+            int ref = cf.methodRef(className, methodName(c.index), descriptor(callee));
+            emit(ref >> 8); emit(ref);
+            return;
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    static int arithmetic(Operator op) {
+        switch (op) {
+            case INT_PLUS: return IADD;
+            case INT_MINUS: return ISUB;
+            case INT_TIMES: return IMUL;
+            case INT_DIV: return IDIV;
+            case FLOAT_PLUS: return FADD;
+            case FLOAT_MINUS: return FSUB;
+            case FLOAT_TIMES: return FMUL;
+            case FLOAT_DIV: return FDIV;
+            case BOOL_AND: return IAND;
+            case BOOL_OR: return IOR;
+        }
+        return 0;
+    }
+}
@@ -1,62 +1,162 @@
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.util.*;
 
-public class Lexer {
+public class Lexer implements TokenStream {
+    // The whole source is scanned from one char array: a mapped file is
+    // decoded into it once, and line and column are worked out from
+    // offsets. Identifiers and numbers are found with a character table
+    // and looked up where they lie in the array, so a spelling seen before
+    // makes no new String or Token.
     private boolean isEof = false;
     private char ch = ' ';
-    private BufferedReader input;
-    private String line = "";
+    private char[] buf;
+    // buf[0, end) is the source; ch is buf[at] and pos is the next index
+    private int end, at, pos;
+    // the source does not end in a newline, so one is read at its end
+    private boolean pad;
+    private int lineStart;
     private int lineno = 0;
     private int col = 1;
-    private final String letters = "abcdefghijklmnopqrstuvwxyz"
-                                 + "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
-    private final String digits = "0123456789";
+    // where the last token returned by next() starts, and its span in buf
+    private int tokenLine, tokenColumn, tokenOffset, tokenLength;
     private final char eolnCh = '\n';
     private final char eofCh = '\004';
 
+    // identifiers and literals already seen, shared by each use
+    private final Token.Table names = new Token.Table();
+
+    private static final byte LETTER = 1, DIGIT = 2;
+    private static final byte[] kind = new byte[128];
+    static {
+        for (char c = 'a'; c <= 'z'; c++) kind[c] = LETTER;
+        for (char c = 'A'; c <= 'Z'; c++) kind[c] = LETTER;
+        for (char c = '0'; c <= '9'; c++) kind[c] = DIGIT;
+    }
+
     public Lexer(String fileName) { // source filename
+        try (FileChannel c = FileChannel.open(Paths.get(fileName))) {
+            source(Charset.defaultCharset().decode(c.map(FileChannel.MapMode.READ_ONLY, 0, c.size())));
+        } catch (NoSuchFileException | InvalidPathException e) {
+            throw new DiagnosticException("File not found: " + fileName);
+        } catch (IOException e) {
+            throw new DiagnosticException(e.toString());
+        }
+    }
+
+    public Lexer(Reader source) {
+        CharArrayWriter w = new CharArrayWriter();
         try {
-            input = new BufferedReader(new FileReader(fileName));
-        } catch (FileNotFoundException e) {
-            System.out.println("File not found: " + fileName);
-            System.exit(1);
+            source.transferTo(w);
+        } catch (IOException e) {
+            throw new DiagnosticException(e.toString());
+        }
+        source(CharBuffer.wrap(w.toCharArray()));
+    }
+
+    private void source(CharBuffer cb) {
+        buf = cb.array();
+        end = cb.limit();
+        // lines end as BufferedReader.readLine() ends them: \n, \r\n or \r
+        int cr = 0;
+        while (cr < end && buf[cr] != '\r') cr++;
+        if (cr < end) {
+            int n = cr;
+            for (int i = cr; i < end; i++) {
+                if (buf[i] != '\r') buf[n++] = buf[i];
+                else if (i + 1 == end || buf[i + 1] != '\n') buf[n++] = eolnCh;
+            }
+            end = n;
         }
+        pad = end > 0 && buf[end - 1] != eolnCh;
+    }
+
+    // the lines of whole from offset from to to, the first being line
+    private Lexer(Lexer whole, int from, int to, int line) {
+        buf = whole.buf;
+        end = to;
+        pad = to == whole.end && whole.pad;
+        pos = from;
+        lineno = line - 1;
+    }
+
+    static final int PART = 1 << 16;
+
+    // This source cut at line ends into at most n parts, none shorter than
+    // PART chars unless it is the last, each lexed by its own Lexer just as
+    // the whole would lex it. No token runs past a line end but a char
+    // literal, so no cut is made within two chars after a quote. Only the
+    // last part reaches the end of file; the others end at Eof early.
+    List<Lexer> split(int n) {
+        List<Lexer> parts = new ArrayList<Lexer>();
+        int size = Math.max(PART, end / n + 1);
+        int from = 0, line = 1, lines = 1;
+        for (int i = 0; i < end; i++) {
+            if (buf[i] != eolnCh) continue;
+            lines++;
+            if (i + 1 - from < size || buf[i - 1] == '\'' || i > 1 && buf[i - 2] == '\'') continue;
+            if (i + 1 == end) break;
+            parts.add(new Lexer(this, from, i + 1, line));
+            from = i + 1;
+            line = lines;
+        }
+        parts.add(new Lexer(this, from, end, line));
+        return parts;
     }
 
     private char nextChar() { // return next char
         if (ch == eofCh) {
             error("Attempt to read past end of file");
         }
-        col++;
-        if (col >= line.length()) {
-            try {
-                line = input.readLine();
-            } catch (IOException e) {
-                System.err.println(e);
-                System.exit(1);
-            }
-            if (line == null) { // at end of file
-                line = "" + eofCh;
-            } else {
-                lineno++;
-                line += eolnCh;
-            }
+        if (pos >= end && !pad) { // at end of file
+            at = pos;
             col = 0;
+            return eofCh;
+        }
+        if (pos == 0 || pos - 1 < end && buf[pos - 1] == eolnCh) {
+            lineno++;
+            lineStart = pos;
         }
-        return line.charAt(col);
+        at = pos++;
+        col = at - lineStart;
+        if (at >= end) {
+            pad = false;
+            return eolnCh;
+        }
+        return buf[at];
     }
 
+    public int tokenOffset() { return tokenOffset; }
+
+    public int tokenLength() { return tokenLength; }
+
+    public int tokenLine() { return tokenLine; }
+
+    public int tokenColumn() { return tokenColumn; }
+
     public Token next() { // return next token
+        Token t = token();
+        tokenLength = at - tokenOffset;
+        return t;
+    }
+
+    private Token token() {
         do {
+            tokenLine = lineno; tokenColumn = col + 1; tokenOffset = at;
             if (isLetter(ch)) { // identifier or keyword
-                String spelling = concat(letters + digits);
-                return Token.keyword(spelling);
+                int p = scan(at + 1, LETTER | DIGIT);
+                Token t = Token.keyword(buf, at, p - at);
+                return past(p, t != null ? t : names.get(TokenType.Identifier, buf, at, p - at));
             } else if (isDigit(ch)) { // int or float
-                String number = concat(digits);
-                if (ch != '.') { // int
-                    return Token.mkIntLiteral(number);
+                int p = scan(at, DIGIT);
+                if (p >= end || buf[p] != '.') { // int
+                    return past(p, names.get(TokenType.IntLiteral, buf, at, p - at));
                 }
-                number += concat(digits);
-                return Token.mkFloatLiteral(number);
+                p = scan(p + 1, DIGIT);
+                return past(p, names.get(TokenType.FloatLiteral, buf, at, p - at));
             } else {
                 switch (ch) {
                     case ' ': case '\t': case '\r': case eolnCh:
@@ -75,10 +175,11 @@ public class Lexer {
                         break;
 
                     case '\'': // char
-                        char ch1 = nextChar();
+                        nextChar();
+                        int c = at;
                         nextChar();
                         ch = nextChar();
-                        return Token.mkCharLiteral("" + ch1);
+                        return names.get(TokenType.CharLiteral, buf, c, 1);
 
                     case eofCh:
                         return Token.eofTok;
@@ -147,11 +248,24 @@ public class Lexer {
     }
 
     private boolean isLetter(char c) {
-        return (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z');
+        return c < 128 && kind[c] == LETTER;
     }
 
     private boolean isDigit(char c) {
-        return (c >= '0' && c <= '9');
+        return c < 128 && kind[c] == DIGIT;
+    }
+
+    // the end of the run of chars of the kinds in mask from p
+    private int scan(int p, int mask) {
+        while (p < end && buf[p] < 128 && (kind[buf[p]] & mask) != 0) p++;
+        return p;
+    }
+
+    // t, which runs from ch up to p, moving on to the char at p
+    private Token past(int p, Token t) {
+        pos = p;
+        ch = nextChar();
+        return t;
     }
 
     private void check(char c) {
@@ -172,27 +286,20 @@ public class Lexer {
         }
     }
 
-    private String concat(String set) {
-        String r = "";
-        do {
-            r += ch;
-            ch = nextChar();
-        } while (set.indexOf(ch) >= 0);
-        return r;
-    }
-
     public void error(String msg) {
-        System.err.print(line);
-        System.err.println("Error: column " + col + " " + msg);
-        System.exit(1);
+        throw new DiagnosticException(new Diagnostic(msg, lineno, col + 1));
     }
 
     static public void main(String[] argv) {
-        Lexer lexer = new Lexer(argv[0]);
-        Token tok = lexer.next();
-        while (tok != Token.eofTok) {
-            System.out.println(tok.toString());
-            tok = lexer.next();
+        try {
+            Lexer lexer = new Lexer(argv[0]);
+            Token tok = lexer.next();
+            while (tok != Token.eofTok) {
+                System.out.println(tok.toString());
+                tok = lexer.next();
+            }
+        } catch (DiagnosticException e) {
+            e.exit();
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,328 @@
+import java.util.*;
+
+public class LoopOptimizer {
+    // Runs per Function after DeadCodeEliminator. For each Loop it hoists
+    // the operations in the test and body that are invariant over the
+    // body into compiler temporaries assigned just before the loop, and
+    // computes an operation that occurs more than once in the test, or in
+    // one assignment of the body, only once per evaluation.
+    //
+    // Temporaries are extra locals marked as such, so states do not show
+    // them; their assignments would still appear in the trace, so this is
+    // only used for untraced runs. A hoisted operation runs even when the
+    // body does not, so it must not be able to fail: its variables have to
+    // be certainly defined and it must not divide by a variable. A shared
+    // operation is only moved within an expression that calls nothing, so
+    // at worst the same undef error is reported at the same point.
+    int hoisted = 0, shared = 0;
+
+    private Declarations params, locals;
+    private boolean[] defined;
+    private int temps;
+
+    Program L(Program p) {
+        Functions out = new Functions();
+        for (Function f : p.functions) {
+            params = f.params;
+            locals = new Declarations();
+            locals.addAll(f.locals);
+            defined = new boolean[params.size() + locals.size()];
+            temps = 0;
+            Block b = (Block)L(f.body);
+            out.add(new Function(f.type, f.id, f.params, locals, b));
+        }
+        return new Program(p.globals, out);
+    }
+
+    private Variable temp(Type t) {
+        int slot = params.size() + locals.size();
+        Declaration d = new Declaration(new Variable("$t" + temps++), t);
+        d.temporary = true;
+        locals.add(d);
+        defined = Arrays.copyOf(defined, slot + 1);
+        Variable v = new Variable(d.var.toString(), slot, false);
+        v.type = t;
+        return v;
+    }
+
+    Statement L(Statement s) {
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment)s;
+            DefiniteAssignment.assign(a, defined);
+            return s;
+        }
+        if (s instanceof Block) {
+            Block out = new Block();
+            for (Statement stmt : (Block)s)
+                out.add(L(stmt));
+            return out;
+        }
+        if (s instanceof Conditional) {
+            Conditional c = (Conditional)s;
+            boolean[] before = defined;
+            defined = before.clone();
+            Statement thenbranch = L(c.thenbranch);
+            boolean[] then = defined;
+            defined = Arrays.copyOf(before, then.length);
+            Statement elsebranch = L(c.elsebranch);
+            DefiniteAssignment.join(c, defined, then);
+            return Statement.at(new Conditional(c.test, thenbranch, elsebranch), c);
+        }
+        if (s instanceof Loop) return L((Loop)s);
+        return s;
+    }
+
+    Statement L(Loop l) {
+        // this loop first, so an operation invariant over several nested
+        // loops goes all the way out; then the loops in its body
+        // only what is defined on every iteration counts, as the body may
+        // not run at all or leave a local undef for the next
+        DefiniteAssignment.loop(l.body, defined);
+        Block pre = new Block();
+        boolean[] assigned = new boolean[defined.length];
+        boolean calls = assigns(l.body, assigned) | calls(l.test);
+        Invariant inv = new Invariant(assigned, calls, pre);
+        Expression test = inv.hoist(l.test, quiet(l.test));
+        Statement body = inv.hoist(l.body);
+
+        boolean[] entry = defined;
+        defined = entry.clone();
+        body = L(body);
+        defined = Arrays.copyOf(entry, defined.length);
+
+        Block rotate = new Block();
+        if (quiet(test)) test = share(test, pre, rotate);
+        body = cse(body);
+        if (!rotate.isEmpty()) {
+            Block b = body instanceof Block ? (Block)body : new Block();
+            if (!(body instanceof Block)) b.add(body);
+            for (Statement r : rotate) b.add(Statement.at(r, l));
+            body = b;
+        }
+        // the temporaries' assignments report errors where the loop is
+        for (Statement s : pre) Statement.at(s, l);
+        Loop loop = Statement.at(new Loop(test, body), l);
+        if (pre.isEmpty()) return loop;
+        pre.add(loop);
+        return pre;
+    }
+
+    // Marks the locals s assigns; returns whether s may change a global,
+    // by assigning one or by calling a function.
+    static boolean assigns(Statement s, boolean[] assigned) {
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment)s;
+            if (!a.target.global) assigned[a.target.slot] = true;
+            return a.target.global || calls(a.source);
+        }
+        if (s instanceof Block) {
+            boolean c = false;
+            for (Statement m : (Block)s)
+                c |= assigns(m, assigned);
+            return c;
+        }
+        if (s instanceof Conditional) {
+            Conditional c = (Conditional)s;
+            return assigns(c.thenbranch, assigned) | assigns(c.elsebranch, assigned) | calls(c.test);
+        }
+        if (s instanceof Loop)
+            return assigns(((Loop)s).body, assigned) | calls(((Loop)s).test);
+        if (s instanceof Call) return true;
+        if (s instanceof Return) return calls(((Return)s).result);
+        return false;
+    }
+
+    static boolean calls(Expression e) {
+        if (e instanceof Call) return true;
+        if (e instanceof Binary) return calls(((Binary)e).term1) || calls(((Binary)e).term2);
+        if (e instanceof Unary) return calls(((Unary)e).term);
+        return false;
+    }
+
+    // no call and no division by a variable: nothing but an undef
+    // reference can stop it
+    static boolean quiet(Expression e) {
+        if (e instanceof Call) return false;
+        if (e instanceof Binary) {
+            Binary b = (Binary)e;
+            if (b.op == Operator.INT_DIV && !(b.term2 instanceof Value)) return false;
+            return quiet(b.term1) && quiet(b.term2);
+        }
+        if (e instanceof Unary) return quiet(((Unary)e).term);
+        return true;
+    }
+
+    static boolean same(Expression a, Expression b) {
+        if (a instanceof Value && b instanceof Value) {
+            Value x = (Value)a, y = (Value)b;
+            return x.type() == y.type() && x.toString().equals(y.toString());
+        }
+        if (a instanceof Variable && b instanceof Variable) {
+            Variable x = (Variable)a, y = (Variable)b;
+            return x.slot == y.slot && x.global == y.global;
+        }
+        if (a instanceof Binary && b instanceof Binary) {
+            Binary x = (Binary)a, y = (Binary)b;
+            return x.op == y.op && same(x.term1, y.term1) && same(x.term2, y.term2);
+        }
+        if (a instanceof Unary && b instanceof Unary) {
+            Unary x = (Unary)a, y = (Unary)b;
+            return x.op == y.op && same(x.term, y.term);
+        }
+        return false;
+    }
+
+    static int size(Expression e) {
+        if (e instanceof Binary) return 1 + size(((Binary)e).term1) + size(((Binary)e).term2);
+        if (e instanceof Unary) return 1 + size(((Unary)e).term);
+        return 1;
+    }
+
+    static void operations(Expression e, ArrayList<Expression> out) {
+        if (e instanceof Binary) {
+            operations(((Binary)e).term1, out);
+            operations(((Binary)e).term2, out);
+            out.add(e);
+        } else if (e instanceof Unary) {
+            operations(((Unary)e).term, out);
+            out.add(e);
+        }
+    }
+
+    static Expression replace(Expression e, Expression old, Variable t) {
+        if (same(e, old)) return t;
+        if (e instanceof Binary) {
+            Binary b = (Binary)e;
+            return new Binary(b.op, replace(b.term1, old, t), replace(b.term2, old, t));
+        }
+        if (e instanceof Unary) {
+            Unary u = (Unary)e;
+            return new Unary(u.op, replace(u.term, old, t));
+        }
+        return e;
+    }
+
+    // Replaces each operation occurring more than once in e, largest
+    // first, by a temporary; its assignments go to each of the blocks.
+    Expression share(Expression e, Block... blocks) {
+        while (true) {
+            ArrayList<Expression> ops = new ArrayList<Expression>();
+            operations(e, ops);
+            Expression best = null;
+            for (int i = 0; i < ops.size(); i++)
+                for (int j = i + 1; j < ops.size(); j++)
+                    if (same(ops.get(i), ops.get(j))
+                            && (best == null || size(ops.get(i)) > size(best)))
+                        best = ops.get(i);
+            if (best == null) return e;
+            Variable t = temp(type(best));
+            for (Block b : blocks)
+                b.add(new Assignment(t, best));
+            e = replace(e, best, t);
+            shared++;
+        }
+    }
+
+    static Type type(Expression e) {
+        if (e instanceof Binary) return ((Binary)e).op.result;
+        return ((Unary)e).op.result;
+    }
+
+    // CSE within each assignment of a loop body
+    Statement cse(Statement s) {
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment)s;
+            if (!quiet(a.source)) return s;
+            Block pre = new Block();
+            Expression source = share(a.source, pre);
+            if (pre.isEmpty()) return s;
+            pre.add(new Assignment(a.target, source));
+            for (Statement m : pre) Statement.at(m, a);
+            return pre;
+        }
+        if (s instanceof Block) {
+            Block out = new Block();
+            for (Statement m : (Block)s)
+                out.add(cse(m));
+            return out;
+        }
+        if (s instanceof Conditional) {
+            Conditional c = (Conditional)s;
+            return Statement.at(new Conditional(c.test, cse(c.thenbranch), cse(c.elsebranch)), c);
+        }
+        return s;
+    }
+
+    class Invariant {
+        boolean[] assigned;
+        boolean calls;
+        Block pre;
+
+        Invariant(boolean[] a, boolean c, Block p) {
+            assigned = a; calls = c; pre = p;
+        }
+
+        boolean invariant(Expression e) {
+            if (e instanceof Value) return true;
+            if (e instanceof Variable) {
+                Variable v = (Variable)e;
+                return v.global ? !calls : !assigned[v.slot];
+            }
+            if (e instanceof Binary)
+                return invariant(((Binary)e).term1) && invariant(((Binary)e).term2);
+            if (e instanceof Unary) return invariant(((Unary)e).term);
+            return false;
+        }
+
+        // Hoists the largest invariant operations of e; always is true
+        // when e is evaluated whenever the loop is reached.
+        Expression hoist(Expression e, boolean always) {
+            if (!(e instanceof Binary || e instanceof Unary)) return e;
+            if (invariant(e) && (always || DefiniteAssignment.safe(e, defined)
+                    && DefiniteAssignment.isDefined(e, defined))) {
+                for (Statement s : pre) {
+                    Assignment a = (Assignment)s;
+                    if (same(a.source, e)) return a.target;
+                }
+                Variable t = temp(type(e));
+                pre.add(new Assignment(t, e));
+                assigned = Arrays.copyOf(assigned, defined.length);
+                if (DefiniteAssignment.safe(e, defined)) defined[t.slot] = true;
+                hoisted++;
+                return t;
+            }
+            if (e instanceof Binary) {
+                Binary b = (Binary)e;
+                return new Binary(b.op, hoist(b.term1, always), hoist(b.term2, always));
+            }
+            Unary u = (Unary)e;
+            return new Unary(u.op, hoist(u.term, always));
+        }
+
+        Statement hoist(Statement s) {
+            if (s instanceof Assignment) {
+                Assignment a = (Assignment)s;
+                return Statement.at(new Assignment(a.target, hoist(a.source, false)), a);
+            }
+            if (s instanceof Block) {
+                Block out = new Block();
+                for (Statement m : (Block)s)
+                    out.add(hoist(m));
+                return out;
+            }
+            if (s instanceof Conditional) {
+                Conditional c = (Conditional)s;
+                return Statement.at(new Conditional(hoist(c.test, false), hoist(c.thenbranch), hoist(c.elsebranch)), c);
+            }
+            if (s instanceof Loop) {
+                Loop l = (Loop)s;
+                return Statement.at(new Loop(hoist(l.test, false), hoist(l.body)), l);
+            }
+            if (s instanceof Return) {
+                Return r = (Return)s;
+                return Statement.at(new Return(r.target, hoist(r.result, false)), r);
+            }
+            return s;
+        }
+    }
+}
@@ -1,9 +1,9 @@
 public class Parser {
     Token token;
     Variable currentFunction;
-    Lexer lexer;
+    TokenStream lexer;
 
-    public Parser(Lexer ts) { // Open the C++Lite source program
+    public Parser(TokenStream ts) { // Open the C++Lite source program
         lexer = ts; // as a token stream, and
         token = lexer.next(); // retrieve its first Token
     }
@@ -17,13 +17,12 @@ public class Parser {
     }
 
     private void error(TokenType tok) {
-        System.err.println("Syntax error: expecting: " + tok + "; saw: " + token);
-        System.exit(1);
+        error(tok.toString());
     }
 
     private void error(String tok) {
-        System.err.println("Syntax error: expecting: " + tok + "; saw: " + token);
-        System.exit(1);
+        throw new DiagnosticException(new Diagnostic("Syntax error: expecting: " + tok
+            + "; saw: " + token, lexer.tokenLine(), lexer.tokenColumn()));
     }
 
     public Program program() {
@@ -45,6 +44,7 @@ public class Parser {
         Declarations params, locals;
         Block b;
 		if (t.equals(Type.INT) && isMain()) return;
+		int line = lexer.tokenLine(), column = lexer.tokenColumn();
 		v = new Variable(match(TokenType.Identifier));
 		if (isLeftParen()) {
 			currentFunction = v;
@@ -55,9 +55,11 @@ public class Parser {
 			locals = declarations();
 			b = progstatements();
 			match(TokenType.RightBrace);
-			functions.add(new Function(t, v.toString(), params, locals, b));
+			Function f = new Function(t, v.toString(), params, locals, b);
+			f.line = line; f.column = column;
+			functions.add(f);
 		} else {
-			globals.add(new Declaration(v, t));
+			globals.add(new Declaration(v, t, line, column));
 			Global(t, globals);
 		}
 	}
@@ -65,27 +67,22 @@ public class Parser {
 	private Declarations Parameters() {
 		// Parameters -> [ Parameter {, Parameter } ]
 		// Parameter -> Type Identifier
-        Variable v;
         Type t = type();
 		Declarations param = new Declarations();
-        v = new Variable(match(TokenType.Identifier));
-		param.add(new Declaration(v, t));
+		param.add(declaration(t));
 		while (isComma()) {
 			token = lexer.next();
 			t = type();
-			v = new Variable(match(TokenType.Identifier));
-			param.add(new Declaration(v, t));
+			param.add(declaration(t));
 		}
 		return param;
 	}
 	
 	private void Global(Type t, Declarations globals) {
         // Global -> { , Identifier }
-        Variable v;
 		while (isComma()) {
 			token = lexer.next();
-			v = new Variable(match(TokenType.Identifier));
-			globals.add(new Declaration(v, t));
+			globals.add(declaration(t));
 		}
 		match(TokenType.Semicolon);
 	}
@@ -94,6 +91,7 @@ public class Parser {
 		// MainFunction -> int main() { Declarations Statements }
         Declarations params, locals;
         Block b;
+		int line = lexer.tokenLine(), column = lexer.tokenColumn();
 		match(TokenType.Main);
 		match(TokenType.LeftParen);
 		params = declarations();
@@ -102,7 +100,9 @@ public class Parser {
 		locals = declarations();
 		b = progstatements();
 		match(TokenType.RightBrace);
-		return new Function(Type.INT, Token.mainTok.toString(), params, locals, b);
+		Function f = new Function(Type.INT, Token.mainTok.toString(), params, locals, b);
+		f.line = line; f.column = column;
+		return f;
 	}
 
     private Declarations declarations() {
@@ -116,21 +116,22 @@ public class Parser {
 
     private void declaration(Declarations ds) {
         // Declaration --> Type Identifier {, Identifier };
-        Variable v;
-        Declaration d;
         Type t = type();
-        v = new Variable(match(TokenType.Identifier));
-        d = new Declaration(v, t);
-        ds.add(d);
+        ds.add(declaration(t));
         while (isComma()) {
             token = lexer.next();
-            v = new Variable(match(TokenType.Identifier));
-            d = new Declaration(v, t);
-            ds.add(d);
+            ds.add(declaration(t));
         }
         match(TokenType.Semicolon);
     }
 
+    private Declaration declaration(Type t) {
+        // Identifier, remembering where it was declared
+        int line = lexer.tokenLine(), column = lexer.tokenColumn();
+        Variable v = new Variable(match(TokenType.Identifier));
+        return new Declaration(v, t, line, column);
+    }
+
     private Type type() {
         // Type --> int | bool | float | char | void
         Type t = null;
@@ -152,8 +153,10 @@ public class Parser {
     private Statement statement() {
         // Statement --> ; | Block | Assignment | IfStatement | WhileStatement | Return | Call
         Statement s = null;
+        int line = lexer.tokenLine(), column = lexer.tokenColumn();
         if (isSemicolon()) {
             s = new Skip();
+            match(TokenType.Semicolon);
         } else if (isLeftBrace()) {
             s = statements();
         } else if (isIdentifier()) {
@@ -163,6 +166,7 @@ public class Parser {
 				s = assignment(id);
 			} else if (isLeftParen()) {
 				s = callStatement(id.toString());
+				match(TokenType.Semicolon);
 			} else {
 				error("statement token");
 			}
@@ -173,7 +177,7 @@ public class Parser {
         } else if (isReturn()) {
 			s = returnStatement();
 		} else error("statement token");
-        return s;
+        return Statement.at(s, line, column);
     }
 
     private Block statements() {
@@ -268,7 +272,7 @@ public class Parser {
         // Expression --> Conjunction { || Conjunction }
         Expression con = conjunction();
         while (isOr()) {
-            Operator op = new Operator(match(token.type()));
+            Operator op = Operator.of(match(token.type()));
             Expression con2 = conjunction();
             con = new Binary(op, con, con2);
         }
@@ -279,7 +283,7 @@ public class Parser {
         // Conjunction --> Equality { && Equality }
         Expression eq = equality();
         while (isAnd()) {
-            Operator op = new Operator(match(token.type()));
+            Operator op = Operator.of(match(token.type()));
             Expression eq2 = equality();
             eq = new Binary(op, eq, eq2);
         }
@@ -290,7 +294,7 @@ public class Parser {
         // Equality --> Relation [ EquOp Relation ]
         Expression rel = relation();
         while (isEqualityOp()) {
-            Operator op = new Operator(match(token.type()));
+            Operator op = Operator.of(match(token.type()));
             Expression rel2 = relation();
             rel = new Binary(op, rel, rel2);
         }
@@ -301,7 +305,7 @@ public class Parser {
         // Relation --> Addition [ RelOp Addition ]
         Expression add = addition();
         while (isRelationalOp()) {
-            Operator op = new Operator(match(token.type()));
+            Operator op = Operator.of(match(token.type()));
             Expression add2 = addition();
             add = new Binary(op, add, add2);
         }
@@ -312,7 +316,7 @@ public class Parser {
         // Addition --> Term { AddOp Term }
         Expression term = term();
         while (isAddOp()) {
-            Operator op = new Operator(match(token.type()));
+            Operator op = Operator.of(match(token.type()));
             Expression term2 = term();
             term = new Binary(op, term, term2);
         }
@@ -323,7 +327,7 @@ public class Parser {
         // Term --> Factor { MultiplyOp Factor }
         Expression fac = factor();
         while (isMultiplyOp()) {
-            Operator op = new Operator(match(token.type()));
+            Operator op = Operator.of(match(token.type()));
             Expression fac2 = factor();
             fac = new Binary(op, fac, fac2);
         }
@@ -333,7 +337,7 @@ public class Parser {
     private Expression factor() {
         // Factor --> [ UnaryOp ] Primary
         if (isUnaryOp()) {
-            Operator op = new Operator(match(token.type()));
+            Operator op = Operator.of(match(token.type()));
             Expression term = primary();
             return new Unary(op, term);
         }
@@ -357,7 +361,7 @@ public class Parser {
             e = expression();
             match(TokenType.RightParen);
         } else if (isType()) {
-            Operator op = new Operator(match(token.type()));
+            Operator op = Operator.of(match(token.type()));
             match(TokenType.LeftParen);
             Expression term = expression();
             match(TokenType.RightParen);
@@ -530,8 +534,12 @@ public class Parser {
 	}
 
     public static void main(String args[]) {
-        Parser parser = new Parser(new Lexer(args[0]));
-        Program prog = parser.program();
-        prog.display(0);
+        try {
+            Parser parser = new Parser(new Lexer(args[0]));
+            Program prog = parser.program();
+            prog.display(0);
+        } catch (DiagnosticException e) {
+            e.exit();
+        }
     }
 }
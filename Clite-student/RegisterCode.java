@@ -0,0 +1,107 @@
+public class RegisterCode {
+    // RegisterCode = Function function; int[] code; int ints, floats
+    // Three-address code for RegisterVM. int, char and bool values live in
+    // the int register file (bool as 0/1), float values in the float file.
+    // Operands are register numbers relative to the activation's window,
+    // except g (global index), k (inline constant; float bits for FCONST)
+    // and t (target pc). CALL is followed by f, d, the argument count n
+    // and one register per argument.
+    final static int ICONST = 0;    // d k
+    final static int FCONST = 1;    // d k
+    final static int IMOV = 2;      // d s
+    final static int FMOV = 3;      // d s
+    final static int GILOAD = 4;    // d g
+    final static int GFLOAD = 5;    // d g
+    final static int GISTORE = 6;   // g s
+    final static int GFSTORE = 7;   // g s
+    final static int JMP = 8;       // t
+    final static int JZ = 9;        // r t
+    final static int CALL = 10;     // f d n a1 .. an
+    final static int IRET = 11;     // r
+    final static int FRET = 12;     // r
+    final static int VRET = 13;
+    final static int TRACE = 14;
+    // d a b
+    final static int IADD = 15;
+    final static int ISUB = 16;
+    final static int IMUL = 17;
+    final static int IDIV = 18;
+    final static int ILT = 19;
+    final static int ILE = 20;
+    final static int IEQ = 21;
+    final static int INE = 22;
+    final static int IGT = 23;
+    final static int IGE = 24;
+    final static int FADD = 25;
+    final static int FSUB = 26;
+    final static int FMUL = 27;
+    final static int FDIV = 28;
+    final static int FLT = 29;
+    final static int FLE = 30;
+    final static int FEQ = 31;
+    final static int FNE = 32;
+    final static int FGT = 33;
+    final static int FGE = 34;
+    final static int IAND = 35;
+    final static int IOR = 36;
+    // d a
+    final static int INOT = 37;
+    final static int INEG = 38;
+    final static int FNEG = 39;
+    final static int I2F = 40;
+    final static int F2I = 41;
+    final static int C2I = 42;
+    final static int I2C = 43;
+
+    final static String names[] = {
+        "ICONST", "FCONST", "IMOV", "FMOV", "GILOAD", "GFLOAD", "GISTORE", "GFSTORE",
+        "JMP", "JZ", "CALL", "IRET", "FRET", "VRET", "TRACE",
+        "IADD", "ISUB", "IMUL", "IDIV", "ILT", "ILE", "IEQ", "INE", "IGT", "IGE",
+        "FADD", "FSUB", "FMUL", "FDIV", "FLT", "FLE", "FEQ", "FNE", "FGT", "FGE",
+        "IAND", "IOR", "INOT", "INEG", "FNEG", "I2F", "F2I", "C2I", "I2C"
+    };
+
+    // number of operands following each opcode; CALL adds n more
+    final static int operands[] = {
+        2, 2, 2, 2, 2, 2, 2, 2,
+        1, 2, 3, 1, 1, 0, 0,
+        3, 3, 3, 3, 3, 3, 3, 3, 3, 3,
+        3, 3, 3, 3, 3, 3, 3, 3, 3, 3,
+        3, 3, 2, 2, 2, 2, 2, 2, 2
+    };
+
+    Function function;
+    int[] code;
+    // register of each Resolver slot (params, then locals)
+    int[] slots;
+    // window sizes of the two register files, variables plus temporaries
+    int ints, floats;
+
+    RegisterCode(Function f, int[] c, int[] s, int i, int fl) {
+        function = f; code = c; slots = s; ints = i; floats = fl;
+    }
+
+    public void display(int k) {
+        for (int w = 0; w < k; w++) {
+            System.out.print("\t");
+        }
+        System.out.println("RegisterCode: <" + function.id + ", ints " + ints + ", floats " + floats + ">");
+        int pc = 0;
+        while (pc < code.length) {
+            for (int w = 0; w < k + 1; w++) {
+                System.out.print("\t");
+            }
+            int op = code[pc];
+            int n = operands[op];
+            if (op == CALL) n += code[pc + 3];
+            System.out.print(pc + ":\t" + names[op]);
+            for (int i = 1; i <= n; i++) {
+                if (op == FCONST && i == 2)
+                    System.out.print("\t" + Float.intBitsToFloat(code[pc + i]));
+                else System.out.print("\t" + code[pc + i]);
+            }
+            System.out.println();
+            pc += n + 1;
+        }
+    }
+}
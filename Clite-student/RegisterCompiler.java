@@ -0,0 +1,271 @@
+import java.util.*;
+
+public class RegisterCompiler {
+    // Compiles each Function of a transformed and resolved Program into
+    // RegisterCode. Registers are partitioned by type: every variable gets
+    // a fixed register in the int or float file, and temporaries are
+    // allocated stack-wise above them, so no intermediate result is boxed.
+    private Functions functions;
+    private Declarations globalDecls;
+    private int[] globals;
+    private boolean trace;
+
+    private int[] code = new int[64];
+    private int size = 0;
+    private Declarations params, locals;
+    private int[] slots;
+    private int itop, ftop, imax, fmax;
+
+    public static RegisterCode[] C(Program p, boolean trace) {
+        int[] globals = registers(new Declarations(), p.globals);
+        RegisterCode[] out = new RegisterCode[p.functions.size()];
+        for (int i = 0; i < out.length; i++) {
+            RegisterCompiler c = new RegisterCompiler();
+            c.functions = p.functions;
+            c.globalDecls = p.globals;
+            c.globals = globals;
+            c.trace = trace;
+            out[i] = c.C(p.functions.get(i));
+        }
+        return out;
+    }
+
+    // register of each slot in its own file, params first then locals
+    static int[] registers(Declarations p, Declarations l) {
+        int[] regs = new int[p.size() + l.size()];
+        int ints = 0, floats = 0;
+        for (int i = 0; i < regs.length; i++) {
+            Type t = i < p.size() ? p.get(i).type : l.get(i - p.size()).type;
+            regs[i] = t == Type.FLOAT ? floats++ : ints++;
+        }
+        return regs;
+    }
+
+    static boolean isFloat(Declarations p, Declarations l, int slot) {
+        Type t = slot < p.size() ? p.get(slot).type : l.get(slot - p.size()).type;
+        return t == Type.FLOAT;
+    }
+
+    RegisterCode C(Function f) {
+        params = f.params; locals = f.locals;
+        slots = registers(params, locals);
+        for (int i = 0; i < slots.length; i++) {
+            if (isFloat(params, locals, i)) ftop++;
+            else itop++;
+        }
+        imax = itop; fmax = ftop;
+        C(f.body);
+        emit(RegisterCode.VRET);
+        return new RegisterCode(f, Arrays.copyOf(code, size), slots, imax, fmax);
+    }
+
+    private void emit(int... words) {
+        while (size + words.length > code.length)
+            code = Arrays.copyOf(code, 2 * code.length);
+        for (int w : words)
+            code[size++] = w;
+    }
+
+    private int itemp() {
+        if (++itop > imax) imax = itop;
+        return itop - 1;
+    }
+
+    private int ftemp() {
+        if (++ftop > fmax) fmax = ftop;
+        return ftop - 1;
+    }
+
+    // the register file an expression's value lives in
+    boolean isFloat(Expression e) {
+        if (e instanceof Value) return ((Value)e).type() == Type.FLOAT;
+        if (e instanceof Variable) {
+            Variable v = (Variable)e;
+            if (v.global) return globalType(v) == Type.FLOAT;
+            return isFloat(params, locals, v.slot);
+        }
+        if (e instanceof Binary) {
+            int op = opcode(((Binary)e).op);
+            return op >= RegisterCode.FADD && op <= RegisterCode.FDIV;
+        }
+        if (e instanceof Unary) {
+            int op = opcode(((Unary)e).op);
+            return op == RegisterCode.FNEG || op == RegisterCode.I2F;
+        }
+        if (e instanceof Call)
+            return functions.get(((Call)e).index).type == Type.FLOAT;
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    private Type globalType(Variable v) {
+        return globalDecls.get(v.slot).type;
+    }
+
+    static int opcode(Operator op) {
+        switch (op) {
+            case INT_PLUS: return RegisterCode.IADD;
+            case INT_MINUS: return RegisterCode.ISUB;
+            case INT_TIMES: return RegisterCode.IMUL;
+            case INT_DIV: return RegisterCode.IDIV;
+            case INT_LT: case CHAR_LT: return RegisterCode.ILT;
+            case INT_LE: case CHAR_LE: return RegisterCode.ILE;
+            case INT_EQ: case CHAR_EQ: case BOOL_EQ: return RegisterCode.IEQ;
+            case INT_NE: case CHAR_NE: case BOOL_NE: return RegisterCode.INE;
+            case INT_GT: case CHAR_GT: return RegisterCode.IGT;
+            case INT_GE: case CHAR_GE: return RegisterCode.IGE;
+            case FLOAT_PLUS: return RegisterCode.FADD;
+            case FLOAT_MINUS: return RegisterCode.FSUB;
+            case FLOAT_TIMES: return RegisterCode.FMUL;
+            case FLOAT_DIV: return RegisterCode.FDIV;
+            case FLOAT_LT: return RegisterCode.FLT;
+            case FLOAT_LE: return RegisterCode.FLE;
+            case FLOAT_EQ: return RegisterCode.FEQ;
+            case FLOAT_NE: return RegisterCode.FNE;
+            case FLOAT_GT: return RegisterCode.FGT;
+            case FLOAT_GE: return RegisterCode.FGE;
+            case BOOL_AND: return RegisterCode.IAND;
+            case BOOL_OR: return RegisterCode.IOR;
+            case NOT: return RegisterCode.INOT;
+            case INT_NEG: return RegisterCode.INEG;
+            case FLOAT_NEG: return RegisterCode.FNEG;
+            case I2F: return RegisterCode.I2F;
+            case F2I: return RegisterCode.F2I;
+            case C2I: return RegisterCode.C2I;
+            case I2C: return RegisterCode.I2C;
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    void C(Statement s) {
+        if (s instanceof Skip) return;
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment)s;
+            boolean f = isFloat(a.source);
+            int mark = itop, fmark = ftop;
+            if (a.target.global) {
+                int r = C(a.source, -1);
+                emit(f ? RegisterCode.GFSTORE : RegisterCode.GISTORE, globals[a.target.slot], r);
+            } else {
+                int target = slots[a.target.slot];
+                int r = C(a.source, target);
+                if (r != target) emit(f ? RegisterCode.FMOV : RegisterCode.IMOV, target, r);
+            }
+            itop = mark; ftop = fmark;
+            if (trace) emit(RegisterCode.TRACE);
+            return;
+        }
+        if (s instanceof Block) {
+            for (Statement stmt : (Block)s)
+                C(stmt);
+            return;
+        }
+        if (s instanceof Conditional) {
+            Conditional c = (Conditional)s;
+            int mark = itop, fmark = ftop;
+            int r = C(c.test, -1);
+            itop = mark; ftop = fmark;
+            emit(RegisterCode.JZ, r, 0);
+            int toElse = size - 1;
+            C(c.thenbranch);
+            emit(RegisterCode.JMP, 0);
+            int toEnd = size - 1;
+            code[toElse] = size;
+            C(c.elsebranch);
+            code[toEnd] = size;
+            return;
+        }
+        if (s instanceof Loop) {
+            Loop l = (Loop)s;
+            int top = size;
+            int mark = itop, fmark = ftop;
+            int r = C(l.test, -1);
+            itop = mark; ftop = fmark;
+            emit(RegisterCode.JZ, r, 0);
+            int toEnd = size - 1;
+            C(l.body);
+            emit(RegisterCode.JMP, top);
+            code[toEnd] = size;
+            return;
+        }
+        if (s instanceof Call) {
+            int mark = itop, fmark = ftop;
+            C((Expression)s, -1);
+            itop = mark; ftop = fmark;
+            return;
+        }
+        if (s instanceof Return) {
+            Expression result = ((Return)s).result;
+            int r = C(result, -1);
+            emit(isFloat(result) ? RegisterCode.FRET : RegisterCode.IRET, r);
+            return;
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    // Emits code leaving e's value in a register and returns it; writes
+    // into target when target >= 0 and e has to compute a new value.
+    int C(Expression e, int target) {
+        if (e instanceof Value) {
+            Value v = (Value)e;
+            if (v.type() == Type.FLOAT) {
+                int d = target >= 0 ? target : ftemp();
+                emit(RegisterCode.FCONST, d, Float.floatToRawIntBits(v.floatValue()));
+                return d;
+            }
+            int d = target >= 0 ? target : itemp();
+            int k = v.type() == Type.CHAR ? v.charValue() : v.intValue();
+            emit(RegisterCode.ICONST, d, k);
+            return d;
+        }
+        if (e instanceof Variable) {
+            Variable v = (Variable)e;
+            if (!v.global) return slots[v.slot];
+            if (globalType(v) == Type.FLOAT) {
+                int d = target >= 0 ? target : ftemp();
+                emit(RegisterCode.GFLOAD, d, globals[v.slot]);
+                return d;
+            }
+            int d = target >= 0 ? target : itemp();
+            emit(RegisterCode.GILOAD, d, globals[v.slot]);
+            return d;
+        }
+        if (e instanceof Binary) {
+            Binary b = (Binary)e;
+            int mark = itop, fmark = ftop;
+            int r1 = C(b.term1, -1);
+            int r2 = C(b.term2, -1);
+            itop = mark; ftop = fmark;
+            int op = opcode(b.op);
+            boolean f = op >= RegisterCode.FADD && op <= RegisterCode.FDIV;
+            int d = target >= 0 ? target : f ? ftemp() : itemp();
+            emit(op, d, r1, r2);
+            return d;
+        }
+        if (e instanceof Unary) {
+            Unary u = (Unary)e;
+            int mark = itop, fmark = ftop;
+            int r = C(u.term, -1);
+            itop = mark; ftop = fmark;
+            int op = opcode(u.op);
+            boolean f = op == RegisterCode.FNEG || op == RegisterCode.I2F;
+            int d = target >= 0 ? target : f ? ftemp() : itemp();
+            emit(op, d, r);
+            return d;
+        }
+        if (e instanceof Call) {
+            Call c = (Call)e;
+            int mark = itop, fmark = ftop;
+            int[] args = new int[c.args.size()];
+            for (int i = 0; i < args.length; i++)
+                args[i] = C(c.args.get(i), -1);
+            // argument temporaries stay allocated until CALL has copied them
+            Function f = functions.get(c.index);
+            itop = mark; ftop = fmark;
+            int d = target >= 0 ? target : f.type == Type.FLOAT ? ftemp() : itemp();
+            emit(RegisterCode.CALL, c.index, d, args.length);
+            emit(args);
+            return d;
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+}
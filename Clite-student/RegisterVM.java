@@ -0,0 +1,399 @@
+import java.util.*;
+
+public class RegisterVM {
+    // Register machine for RegisterCode. Values stay unboxed in an int and
+    // a float register file; each activation owns a window of both files
+    // starting at (ib, fb). A parallel defined flag per register carries
+    // the undef-reference check, so arithmetic allocates nothing. Values
+    // are boxed only to build the State for the trace and the final state.
+    private Program program;
+    private RegisterCode[] functions;
+    private boolean compiledTrace;
+    private int[] globalRegs;
+    boolean trace = true;
+
+    private int[] gi;
+    private float[] gf;
+    private boolean[] gidef, gfdef;
+    private int[] ir = new int[256];
+    private float[] fr = new float[256];
+    private boolean[] idef = new boolean[256], fdef = new boolean[256];
+
+    RegisterVM(Program p) {
+        program = p;
+        globalRegs = RegisterCompiler.registers(new Declarations(), p.globals);
+    }
+
+    private void compile() {
+        if (functions == null || compiledTrace != trace) {
+            functions = RegisterCompiler.C(program, trace);
+            compiledTrace = trace;
+        }
+    }
+
+    public void display(int k) {
+        compile();
+        for (RegisterCode c : functions)
+            c.display(k);
+    }
+
+    static void undef() {
+        StaticTypeCheck.check(false, "reference to undef value");
+    }
+
+    static Value box(Type t, boolean defined, int i, float f) {
+        if (!defined) return Value.mkValue(t);
+        if (t == Type.FLOAT) return new FloatValue(f);
+        if (t == Type.BOOL) return new BoolValue(i != 0);
+        if (t == Type.CHAR) return new CharValue((char)i);
+        return new IntValue(i);
+    }
+
+    private State state(RegisterCode fn, int ib, int fb) {
+        State state = new State(program.globals);
+        state.trace = false;
+        Value[] g = state.globals().slots;
+        for (int i = 0; i < g.length; i++) {
+            int r = globalRegs[i];
+            Type t = program.globals.get(i).type;
+            g[i] = t == Type.FLOAT ? box(t, gfdef[r], 0, gf[r]) : box(t, gidef[r], gi[r], 0);
+        }
+        Frame frame = new Frame(fn.function);
+        Declarations p = fn.function.params, l = fn.function.locals;
+        for (int i = 0; i < frame.slots.length; i++) {
+            int r = fn.slots[i];
+            Type t = i < p.size() ? p.get(i).type : l.get(i - p.size()).type;
+            frame.slots[i] = t == Type.FLOAT ? box(t, fdef[fb + r], 0, fr[fb + r])
+                : box(t, idef[ib + r], ir[ib + r], 0);
+        }
+        state.push(frame);
+        return state;
+    }
+
+    State run() {
+        compile();
+        int ng = program.globals.size();
+        gi = new int[ng]; gf = new float[ng];
+        gidef = new boolean[ng]; gfdef = new boolean[ng];
+
+        Function main = program.functions.getFunction(Token.mainTok.toString());
+        RegisterCode mainCode = functions[program.functions.indexOf(main)];
+        RegisterCode fn = mainCode;
+        int[] code = fn.code;
+        int pc = 0, ib = 0, fb = 0;
+        ensure(fn.ints, fn.floats);
+        Arrays.fill(idef, 0, fn.ints, false);
+        Arrays.fill(fdef, 0, fn.floats, false);
+
+        // saved caller activations
+        RegisterCode[] fns = new RegisterCode[16];
+        int[] pcs = new int[16], ibs = new int[16], fbs = new int[16];
+        int fp = 0;
+
+        int d, a, b;
+        while (true) {
+            switch (code[pc]) {
+                case RegisterCode.ICONST:
+                    d = ib + code[pc + 1];
+                    ir[d] = code[pc + 2]; idef[d] = true;
+                    pc += 3;
+                    break;
+                case RegisterCode.FCONST:
+                    d = fb + code[pc + 1];
+                    fr[d] = Float.intBitsToFloat(code[pc + 2]); fdef[d] = true;
+                    pc += 3;
+                    break;
+                case RegisterCode.IMOV:
+                    d = ib + code[pc + 1]; a = ib + code[pc + 2];
+                    ir[d] = ir[a]; idef[d] = idef[a];
+                    pc += 3;
+                    break;
+                case RegisterCode.FMOV:
+                    d = fb + code[pc + 1]; a = fb + code[pc + 2];
+                    fr[d] = fr[a]; fdef[d] = fdef[a];
+                    pc += 3;
+                    break;
+                case RegisterCode.GILOAD:
+                    d = ib + code[pc + 1]; a = code[pc + 2];
+                    ir[d] = gi[a]; idef[d] = gidef[a];
+                    pc += 3;
+                    break;
+                case RegisterCode.GFLOAD:
+                    d = fb + code[pc + 1]; a = code[pc + 2];
+                    fr[d] = gf[a]; fdef[d] = gfdef[a];
+                    pc += 3;
+                    break;
+                case RegisterCode.GISTORE:
+                    d = code[pc + 1]; a = ib + code[pc + 2];
+                    gi[d] = ir[a]; gidef[d] = idef[a];
+                    pc += 3;
+                    break;
+                case RegisterCode.GFSTORE:
+                    d = code[pc + 1]; a = fb + code[pc + 2];
+                    gf[d] = fr[a]; gfdef[d] = fdef[a];
+                    pc += 3;
+                    break;
+                case RegisterCode.JMP:
+                    pc = code[pc + 1];
+                    break;
+                case RegisterCode.JZ:
+                    if (ir[ib + code[pc + 1]] == 0) pc = code[pc + 2];
+                    else pc += 3;
+                    break;
+                case RegisterCode.CALL: {
+                    RegisterCode callee = functions[code[pc + 1]];
+                    int n = code[pc + 3];
+                    int nib = ib + fn.ints, nfb = fb + fn.floats;
+                    ensure(nib + callee.ints, nfb + callee.floats);
+                    Arrays.fill(idef, nib, nib + callee.ints, false);
+                    Arrays.fill(fdef, nfb, nfb + callee.floats, false);
+                    Declarations params = callee.function.params;
+                    for (int i = 0; i < n; i++) {
+                        int src = code[pc + 4 + i], dst = callee.slots[i];
+                        if (params.get(i).type == Type.FLOAT) {
+                            fr[nfb + dst] = fr[fb + src]; fdef[nfb + dst] = fdef[fb + src];
+                        } else {
+                            ir[nib + dst] = ir[ib + src]; idef[nib + dst] = idef[ib + src];
+                        }
+                    }
+                    if (fp == fns.length) {
+                        fns = Arrays.copyOf(fns, 2 * fp);
+                        pcs = Arrays.copyOf(pcs, 2 * fp);
+                        ibs = Arrays.copyOf(ibs, 2 * fp);
+                        fbs = Arrays.copyOf(fbs, 2 * fp);
+                    }
+                    fns[fp] = fn; pcs[fp] = pc; ibs[fp] = ib; fbs[fp] = fb; fp++;
+                    fn = callee; code = fn.code;
+                    pc = 0; ib = nib; fb = nfb;
+                    break;
+                }
+                case RegisterCode.IRET:
+                case RegisterCode.FRET:
+                case RegisterCode.VRET: {
+                    int op = code[pc];
+                    int ri = 0; float rf = 0; boolean rdef = false;
+                    if (op == RegisterCode.IRET) {
+                        ri = ir[ib + code[pc + 1]]; rdef = idef[ib + code[pc + 1]];
+                    } else if (op == RegisterCode.FRET) {
+                        rf = fr[fb + code[pc + 1]]; rdef = fdef[fb + code[pc + 1]];
+                    }
+                    if (fp == 0) return state(mainCode, 0, 0);
+                    // a non-void function that falls off its end returns undef
+                    Type t = fn.function.type;
+                    fp--;
+                    fn = fns[fp]; pc = pcs[fp]; ib = ibs[fp]; fb = fbs[fp];
+                    fns[fp] = null;
+                    code = fn.code;
+                    d = code[pc + 2];
+                    if (op == RegisterCode.IRET) {
+                        ir[ib + d] = ri; idef[ib + d] = rdef;
+                    } else if (op == RegisterCode.FRET) {
+                        fr[fb + d] = rf; fdef[fb + d] = rdef;
+                    } else if (t == Type.FLOAT) {
+                        fdef[fb + d] = false;
+                    } else if (t != Type.VOID) {
+                        idef[ib + d] = false;
+                    }
+                    pc += 4 + code[pc + 3];
+                    break;
+                }
+                case RegisterCode.TRACE:
+                    if (trace) state(fn, ib, fb).display();
+                    pc++;
+                    break;
+
+                case RegisterCode.IADD:
+                    d = ib + code[pc + 1]; a = ib + code[pc + 2]; b = ib + code[pc + 3];
+                    if (!idef[a] || !idef[b]) undef();
+                    ir[d] = ir[a] + ir[b]; idef[d] = true;
+                    pc += 4;
+                    break;
+                case RegisterCode.ISUB:
+                    d = ib + code[pc + 1]; a = ib + code[pc + 2]; b = ib + code[pc + 3];
+                    if (!idef[a] || !idef[b]) undef();
+                    ir[d] = ir[a] - ir[b]; idef[d] = true;
+                    pc += 4;
+                    break;
+                case RegisterCode.IMUL:
+                    d = ib + code[pc + 1]; a = ib + code[pc + 2]; b = ib + code[pc + 3];
+                    if (!idef[a] || !idef[b]) undef();
+                    ir[d] = ir[a] * ir[b]; idef[d] = true;
+                    pc += 4;
+                    break;
+                case RegisterCode.IDIV:
+                    d = ib + code[pc + 1]; a = ib + code[pc + 2]; b = ib + code[pc + 3];
+                    if (!idef[a] || !idef[b]) undef();
+                    ir[d] = Operator.divide(ir[a], ir[b]); idef[d] = true;
+                    pc += 4;
+                    break;
+                case RegisterCode.ILT:
+                    d = ib + code[pc + 1]; a = ib + code[pc + 2]; b = ib + code[pc + 3];
+                    if (!idef[a] || !idef[b]) undef();
+                    ir[d] = ir[a] < ir[b] ? 1 : 0; idef[d] = true;
+                    pc += 4;
+                    break;
+                case RegisterCode.ILE:
+                    d = ib + code[pc + 1]; a = ib + code[pc + 2]; b = ib + code[pc + 3];
+                    if (!idef[a] || !idef[b]) undef();
+                    ir[d] = ir[a] <= ir[b] ? 1 : 0; idef[d] = true;
+                    pc += 4;
+                    break;
+                case RegisterCode.IEQ:
+                    d = ib + code[pc + 1]; a = ib + code[pc + 2]; b = ib + code[pc + 3];
+                    if (!idef[a] || !idef[b]) undef();
+                    ir[d] = ir[a] == ir[b] ? 1 : 0; idef[d] = true;
+                    pc += 4;
+                    break;
+                case RegisterCode.INE:
+                    d = ib + code[pc + 1]; a = ib + code[pc + 2]; b = ib + code[pc + 3];
+                    if (!idef[a] || !idef[b]) undef();
+                    ir[d] = ir[a] != ir[b] ? 1 : 0; idef[d] = true;
+                    pc += 4;
+                    break;
+                case RegisterCode.IGT:
+                    d = ib + code[pc + 1]; a = ib + code[pc + 2]; b = ib + code[pc + 3];
+                    if (!idef[a] || !idef[b]) undef();
+                    ir[d] = ir[a] > ir[b] ? 1 : 0; idef[d] = true;
+                    pc += 4;
+                    break;
+                case RegisterCode.IGE:
+                    d = ib + code[pc + 1]; a = ib + code[pc + 2]; b = ib + code[pc + 3];
+                    if (!idef[a] || !idef[b]) undef();
+                    ir[d] = ir[a] >= ir[b] ? 1 : 0; idef[d] = true;
+                    pc += 4;
+                    break;
+
+                case RegisterCode.FADD:
+                    d = fb + code[pc + 1]; a = fb + code[pc + 2]; b = fb + code[pc + 3];
+                    if (!fdef[a] || !fdef[b]) undef();
+                    fr[d] = fr[a] + fr[b]; fdef[d] = true;
+                    pc += 4;
+                    break;
+                case RegisterCode.FSUB:
+                    d = fb + code[pc + 1]; a = fb + code[pc + 2]; b = fb + code[pc + 3];
+                    if (!fdef[a] || !fdef[b]) undef();
+                    fr[d] = fr[a] - fr[b]; fdef[d] = true;
+                    pc += 4;
+                    break;
+                case RegisterCode.FMUL:
+                    d = fb + code[pc + 1]; a = fb + code[pc + 2]; b = fb + code[pc + 3];
+                    if (!fdef[a] || !fdef[b]) undef();
+                    fr[d] = fr[a] * fr[b]; fdef[d] = true;
+                    pc += 4;
+                    break;
+                case RegisterCode.FDIV:
+                    d = fb + code[pc + 1]; a = fb + code[pc + 2]; b = fb + code[pc + 3];
+                    if (!fdef[a] || !fdef[b]) undef();
+                    fr[d] = fr[a] / fr[b]; fdef[d] = true;
+                    pc += 4;
+                    break;
+                case RegisterCode.FLT:
+                    d = ib + code[pc + 1]; a = fb + code[pc + 2]; b = fb + code[pc + 3];
+                    if (!fdef[a] || !fdef[b]) undef();
+                    ir[d] = fr[a] < fr[b] ? 1 : 0; idef[d] = true;
+                    pc += 4;
+                    break;
+                case RegisterCode.FLE:
+                    d = ib + code[pc + 1]; a = fb + code[pc + 2]; b = fb + code[pc + 3];
+                    if (!fdef[a] || !fdef[b]) undef();
+                    ir[d] = fr[a] <= fr[b] ? 1 : 0; idef[d] = true;
+                    pc += 4;
+                    break;
+                case RegisterCode.FEQ:
+                    d = ib + code[pc + 1]; a = fb + code[pc + 2]; b = fb + code[pc + 3];
+                    if (!fdef[a] || !fdef[b]) undef();
+                    ir[d] = fr[a] == fr[b] ? 1 : 0; idef[d] = true;
+                    pc += 4;
+                    break;
+                case RegisterCode.FNE:
+                    d = ib + code[pc + 1]; a = fb + code[pc + 2]; b = fb + code[pc + 3];
+                    if (!fdef[a] || !fdef[b]) undef();
+                    ir[d] = fr[a] != fr[b] ? 1 : 0; idef[d] = true;
+                    pc += 4;
+                    break;
+                case RegisterCode.FGT:
+                    d = ib + code[pc + 1]; a = fb + code[pc + 2]; b = fb + code[pc + 3];
+                    if (!fdef[a] || !fdef[b]) undef();
+                    ir[d] = fr[a] > fr[b] ? 1 : 0; idef[d] = true;
+                    pc += 4;
+                    break;
+                case RegisterCode.FGE:
+                    d = ib + code[pc + 1]; a = fb + code[pc + 2]; b = fb + code[pc + 3];
+                    if (!fdef[a] || !fdef[b]) undef();
+                    ir[d] = fr[a] >= fr[b] ? 1 : 0; idef[d] = true;
+                    pc += 4;
+                    break;
+
+                case RegisterCode.IAND:
+                    d = ib + code[pc + 1]; a = ib + code[pc + 2]; b = ib + code[pc + 3];
+                    if (!idef[a] || !idef[b]) undef();
+                    ir[d] = ir[a] & ir[b]; idef[d] = true;
+                    pc += 4;
+                    break;
+                case RegisterCode.IOR:
+                    d = ib + code[pc + 1]; a = ib + code[pc + 2]; b = ib + code[pc + 3];
+                    if (!idef[a] || !idef[b]) undef();
+                    ir[d] = ir[a] | ir[b]; idef[d] = true;
+                    pc += 4;
+                    break;
+
+                case RegisterCode.INOT:
+                    d = ib + code[pc + 1]; a = ib + code[pc + 2];
+                    if (!idef[a]) undef();
+                    ir[d] = ir[a] ^ 1; idef[d] = true;
+                    pc += 3;
+                    break;
+                case RegisterCode.INEG:
+                    d = ib + code[pc + 1]; a = ib + code[pc + 2];
+                    if (!idef[a]) undef();
+                    ir[d] = -ir[a]; idef[d] = true;
+                    pc += 3;
+                    break;
+                case RegisterCode.FNEG:
+                    d = fb + code[pc + 1]; a = fb + code[pc + 2];
+                    if (!fdef[a]) undef();
+                    fr[d] = -fr[a]; fdef[d] = true;
+                    pc += 3;
+                    break;
+                case RegisterCode.I2F:
+                    d = fb + code[pc + 1]; a = ib + code[pc + 2];
+                    if (!idef[a]) undef();
+                    fr[d] = (float)ir[a]; fdef[d] = true;
+                    pc += 3;
+                    break;
+                case RegisterCode.F2I:
+                    d = ib + code[pc + 1]; a = fb + code[pc + 2];
+                    if (!fdef[a]) undef();
+                    ir[d] = (int)fr[a]; idef[d] = true;
+                    pc += 3;
+                    break;
+                case RegisterCode.C2I:
+                    d = ib + code[pc + 1]; a = ib + code[pc + 2];
+                    if (!idef[a]) undef();
+                    ir[d] = ir[a]; idef[d] = true;
+                    pc += 3;
+                    break;
+                case RegisterCode.I2C:
+                    d = ib + code[pc + 1]; a = ib + code[pc + 2];
+                    if (!idef[a]) undef();
+                    ir[d] = (char)ir[a]; idef[d] = true;
+                    pc += 3;
+                    break;
+
+                default:
+                    throw new IllegalArgumentException("should never reach here");
+            }
+        }
+    }
+
+    private void ensure(int ints, int floats) {
+        if (ints > ir.length) {
+            ir = Arrays.copyOf(ir, 2 * ints);
+            idef = Arrays.copyOf(idef, 2 * ints);
+        }
+        if (floats > fr.length) {
+            fr = Arrays.copyOf(fr, 2 * floats);
+            fdef = Arrays.copyOf(fdef, 2 * floats);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+import java.util.*;
+
+public class Resolver {
+    // Runs after StaticTypeCheck.V(Program): gives every global, parameter
+    // and local a fixed slot in its activation record and rewrites each
+    // Variable reference to carry that slot, so State can index arrays
+    // instead of hashing names.
+    private HashMap<Variable, Variable> globals;
+    private HashMap<Variable, Variable> locals;
+    private HashMap<String, Integer> functions = new HashMap<String, Integer>();
+
+    public static Program R(Program p) {
+        Resolver r = new Resolver();
+        r.globals = slots(p.globals, 0, true);
+        for (int i = 0; i < p.functions.size(); i++)
+            r.functions.put(p.functions.get(i).id, i);
+        Functions out = new Functions();
+        for (Function f : p.functions) {
+            r.locals = slots(f.params, 0, false);
+            r.locals.putAll(slots(f.locals, f.params.size(), false));
+            Block b = (Block)r.R(f.body);
+            out.add(new Function(f.type, f.id, f.params, f.locals, b));
+        }
+        return new Program(p.globals, out);
+    }
+
+    static HashMap<Variable, Variable> slots(Declarations ds, int first, boolean global) {
+        HashMap<Variable, Variable> map = new HashMap<Variable, Variable>();
+        for (int i = 0; i < ds.size(); i++) {
+            Variable v = ds.get(i).var;
+            Variable r = new Variable(v.toString(), first + i, global);
+            r.type = ds.get(i).type;
+            map.put(v, r);
+        }
+        return map;
+    }
+
+    Variable R(Variable v) {
+        Variable r = locals.get(v);
+        if (r == null) r = globals.get(v);
+        StaticTypeCheck.check(r != null, "undefined variable: " + v);
+        return r;
+    }
+
+    Expression R(Expression e) {
+        if (e instanceof Value) return e;
+        if (e instanceof Variable) return R((Variable)e);
+        if (e instanceof Binary) {
+            Binary b = (Binary)e;
+            return new Binary(b.op, R(b.term1), R(b.term2));
+        }
+        if (e instanceof Unary) {
+            Unary u = (Unary)e;
+            return new Unary(u.op, R(u.term));
+        }
+        if (e instanceof Call) return R((Call)e);
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    Call R(Call c) {
+        Integer index = functions.get(c.name);
+        StaticTypeCheck.check(index != null, "undefined call: " + c.name);
+        Expressions args = new Expressions();
+        for (Expression e : c.args)
+            args.add(R(e));
+        Call r = Statement.at(new Call(c.name, args, index), c);
+        r.type = c.type;
+        return r;
+    }
+
+    Statement R(Statement s) {
+        if (s instanceof Skip) return s;
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment)s;
+            return Statement.at(new Assignment(R(a.target), R(a.source)), a);
+        }
+        if (s instanceof Conditional) {
+            Conditional c = (Conditional)s;
+            return Statement.at(new Conditional(R(c.test), R(c.thenbranch), R(c.elsebranch)), c);
+        }
+        if (s instanceof Loop) {
+            Loop l = (Loop)s;
+            return Statement.at(new Loop(R(l.test), R(l.body)), l);
+        }
+        if (s instanceof Block) {
+            Block b = (Block)s;
+            Block out = new Block();
+            for (Statement stmt : b)
+                out.add(R(stmt));
+            return out;
+        }
+        if (s instanceof Call) return R((Call)s);
+        if (s instanceof Return) {
+            Return r = (Return)s;
+            return Statement.at(new Return(r.target, R(r.result)), r);
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+}
@@ -1,22 +1,39 @@
 public class Semantics {
+    Functions functions;
+    boolean trace = true;
+    // run hot functions and loops as compiled JVM code; needs trace off
+    boolean tiered = false;
+    Jit jit;
+
     State M(Program p) {
-        return M(p.body, initialState(p.decpart));
+        return M(p, new State(p.globals));
     }
 
-    State initialState(Declarations d) {
-        State state = new State();
-        Value intUndef = new IntValue();
-        for (Declaration decl : d)
-            state.put(decl.v, Value.mkValue(decl.t));
-        return state;
+    // Runs p from state, whose globals the caller may have set first.
+    // A Semantics and its State serve one run; a frozen Program can be
+    // run by many at once.
+    State M(Program p, State state) {
+        functions = p.functions;
+        jit = tiered && !trace ? new Jit(p) : null;
+        state.trace = trace;
+        Function main = functions.getFunction(Token.mainTok.toString());
+        state.push(new Frame(main));
+        return M(main.body, state);
     }
 
+    // A run-time error is placed at the innermost statement it came from.
     State M(Statement s, State state) {
-        if (s instanceof Skip) return M((Skip)s, state);
-        if (s instanceof Assignment) return M((Assignment)s, state);
-        if (s instanceof Block) return M((Block)s, state);
-        if (s instanceof Loop) return M((Loop)s, state);
-        if (s instanceof Conditional) return M((Conditional)s, state);
+        try {
+            if (s instanceof Skip) return M((Skip)s, state);
+            if (s instanceof Assignment) return M((Assignment)s, state);
+            if (s instanceof Block) return M((Block)s, state);
+            if (s instanceof Loop) return M((Loop)s, state);
+            if (s instanceof Conditional) return M((Conditional)s, state);
+            if (s instanceof Call) { M((Call)s, state); return state; }
+            if (s instanceof Return) return M((Return)s, state);
+        } catch (DiagnosticException e) {
+            throw e.at(s);
+        }
         throw new IllegalArgumentException("should never reach here");
     }
 
@@ -29,15 +46,29 @@ public class Semantics {
     }
 
     State M(Block b, State state) {
-        for (Statement s : b.members)
+        for (Statement s : b) {
+            if (state.top().returned) break;
             state = M(s, state);
+        }
         return state;
     }
 
     State M(Loop l, State state) {
-        if (M(l.test, state).boolValue())
-            return M(l, M(l.body, state));
-        else return state;
+        // iterate rather than recurse, so a long loop runs in constant stack
+        Jit.Counter counter = jit == null ? null : jit.counter(l);
+        while (M(l.test, state).boolValue()) {
+            state = M(l.body, state);
+            interrupted();
+            if (state.top().returned) break;
+            if (counter != null && jit.osr(state.top().function, l, counter, state.top())) break;
+        }
+        return state;
+    }
+
+    // A run on a thread that has been interrupted, as Server does when a
+    // program runs too long, stops at the next iteration or call.
+    static void interrupted() {
+        StaticTypeCheck.check(!Thread.currentThread().isInterrupted(), "run interrupted");
     }
 
     State M(Conditional c, State state) {
@@ -46,101 +77,43 @@ public class Semantics {
         else return M(c.elsebranch, state);
     }
 
-    Value applyBinary(Operator op, Value v1, Value v2) {
-        StaticTypeCheck.check(!v1.isUndef() && !v2.isUndef(), "reference to undef value");
-        if (op.val.equals(Operator.INT_PLUS))
-            return new IntValue(v1.intValue() + v2.intValue());
-        if (op.val.equals(Operator.INT_MINUS))
-            return new IntValue(v1.intValue() - v2.intValue());
-        if (op.val.equals(Operator.INT_TIMES))
-            return new IntValue(v1.intValue() * v2.intValue());
-        if (op.val.equals(Operator.INT_DIV))
-            return new IntValue(v1.intValue() / v2.intValue());
-
-        if (op.val.equals(Operator.INT_LT))
-            return new BoolValue(v1.intValue() < v2.intValue());
-        if (op.val.equals(Operator.INT_LE))
-            return new BoolValue(v1.intValue() <= v2.intValue());
-        if (op.val.equals(Operator.INT_EQ))
-            return new BoolValue(v1.intValue() == v2.intValue());
-        if (op.val.equals(Operator.INT_NE))
-            return new BoolValue(v1.intValue() != v2.intValue());
-        if (op.val.equals(Operator.INT_GT))
-            return new BoolValue(v1.intValue() > v2.intValue());
-        if (op.val.equals(Operator.INT_GE))
-            return new BoolValue(v1.intValue() >= v2.intValue());
-
-        if (op.val.equals(Operator.FLOAT_PLUS))
-            return new FloatValue(v1.floatValue() + v2.floatValue());
-        if (op.val.equals(Operator.FLOAT_MINUS))
-            return new FloatValue(v1.floatValue() - v2.floatValue());
-        if (op.val.equals(Operator.FLOAT_TIMES))
-            return new FloatValue(v1.floatValue() * v2.floatValue());
-        if (op.val.equals(Operator.FLOAT_DIV))
-            return new FloatValue(v1.floatValue() / v2.floatValue());
-
-        if (op.val.equals(Operator.FLOAT_LT))
-            return new BoolValue(v1.floatValue() < v2.floatValue());
-        if (op.val.equals(Operator.FLOAT_LE))
-            return new BoolValue(v1.floatValue() <= v2.floatValue());
-        if (op.val.equals(Operator.FLOAT_EQ))
-            return new BoolValue(v1.floatValue() == v2.floatValue());
-        if (op.val.equals(Operator.FLOAT_NE))
-            return new BoolValue(v1.floatValue() != v2.floatValue());
-        if (op.val.equals(Operator.FLOAT_GT))
-            return new BoolValue(v1.floatValue() > v2.floatValue());
-        if (op.val.equals(Operator.FLOAT_GE))
-            return new BoolValue(v1.floatValue() >= v2.floatValue());
-
-        if (op.val.equals(Operator.CHAR_LT))
-            return new BoolValue(v1.charValue() < v2.charValue());
-        if (op.val.equals(Operator.CHAR_LE))
-            return new BoolValue(v1.charValue() <= v2.charValue());
-        if (op.val.equals(Operator.CHAR_EQ))
-            return new BoolValue(v1.charValue() == v2.charValue());
-        if (op.val.equals(Operator.CHAR_NE))
-            return new BoolValue(v1.charValue() != v2.charValue());
-        if (op.val.equals(Operator.CHAR_GT))
-            return new BoolValue(v1.charValue() > v2.charValue());
-        if (op.val.equals(Operator.CHAR_GE))
-            return new BoolValue(v1.charValue() >= v2.charValue());
+    Value M(Call c, State state) {
+        interrupted();
+        Function f = functions.get(c.index);
+        Frame frame = new Frame(f);
+        for (int i = 0; i < c.args.size(); i++)
+            frame.slots[i] = M(c.args.get(i), state);
+        if (jit != null && jit.call(c.index, frame)) return frame.result;
+        Frame caller = state.push(frame);
+        M(f.body, state);
+        state.pop(caller);
+        return frame.result;
+    }
 
-        if (op.val.equals(Operator.BOOL_AND))
-            return new BoolValue(v1.boolValue() && v2.boolValue());
-        if (op.val.equals(Operator.BOOL_OR))
-            return new BoolValue(v1.boolValue() || v2.boolValue());
-        if (op.val.equals(Operator.BOOL_EQ))
-            return new BoolValue(v1.boolValue() == v2.boolValue());
-        if (op.val.equals(Operator.BOOL_NE))
-            return new BoolValue(v1.boolValue() != v2.boolValue());
+    State M(Return r, State state) {
+        Frame top = state.top();
+        top.result = M(r.result, state);
+        top.returned = true;
+        return state;
+    }
 
-        throw new IllegalArgumentException("should never reach here");
+    Value applyBinary(Operator op, Value v1, Value v2) {
+        StaticTypeCheck.check(!v1.isUndef() && !v2.isUndef(), "reference to undef value");
+        if (op.binary == null) throw new IllegalArgumentException("should never reach here");
+        return op.binary.apply(v1, v2);
     }
 
     Value applyUnary(Operator op, Value v) {
         StaticTypeCheck.check(!v.isUndef(), "reference to undef value");
-        if (op.val.equals(Operator.NOT))
-            return new BoolValue(!v.boolValue());
-        if (op.val.equals(Operator.INT_NEG))
-            return new IntValue(-v.intValue());
-        if (op.val.equals(Operator.FLOAT_NEG))
-            return new FloatValue(-v.floatValue());
-        if (op.val.equals(Operator.I2F))
-            return new FloatValue((float)(v.intValue()));
-        if (op.val.equals(Operator.F2I))
-            return new IntValue((int)(v.floatValue()));
-        if (op.val.equals(Operator.C2I))
-            return new IntValue((int)(v.charValue()));
-        if (op.val.equals(Operator.I2C))
-            return new CharValue((char)(v.intValue()));
-        throw new IllegalArgumentException("should never reach here");
+        if (op.unary == null) throw new IllegalArgumentException("should never reach here");
+        return op.unary.apply(v);
     }
 
     Value M(Expression e, State state) {
         if (e instanceof Value)
             return (Value)e;
         if (e instanceof Variable)
-            return (Value)(state.get(e));
+            return state.get((Variable)e);
         if (e instanceof Binary) {
             Binary b = (Binary)e;
             return applyBinary(b.op, M(b.term1, state), M(b.term2, state));
@@ -149,25 +122,74 @@ public class Semantics {
             Unary u = (Unary)e;
             return applyUnary(u.op, M(u.term, state));
         }
+        if (e instanceof Call)
+            return M((Call)e, state);
         throw new IllegalArgumentException("should never reach here");
     }
 
     public static void main(String args[]) {
-        Parser parser = new Parser(new Lexer(args[0]));
-        Program prog = parser.program();
-        prog.display(0);
-        System.out.println("\nBegin type checking...");
-        System.out.println("Type map:");
-        TypeMap map = StaticTypeCheck.typing(prog.decpart);
-        map.display();
-        StaticTypeCheck.V(prog);
-        Program out = TypeTransformer.T(prog, map);
-        System.out.println("Output AST");
-        out.display(0);
-        Semantics semantics = new Semantics();
-        System.out.println("Change State");
-        State state = semantics.M(out);
-        System.out.println("Final State");
-        state.display();
+        try {
+            Parser parser = new Parser(new Lexer(args[0]));
+            Program prog = parser.program();
+            prog.display(0);
+            System.out.println("\nBegin type checking...");
+            System.out.println("Type map:");
+            TypeMap map = StaticTypeCheck.typing(prog.globals, prog.functions);
+            map.display();
+            Program out = TypeTransformer.VT(prog);
+            System.out.println("Output AST");
+            out.display(0);
+            out = Resolver.R(out);
+            ConstantFolder folder = new ConstantFolder();
+            out = folder.F(out);
+            System.out.println("Constant folding removed " + folder.removed + " nodes");
+            String mode = args.length > 1 ? args[1] : "-walk";
+            // only -jit runs without a trace, which these may change
+            boolean traced = !mode.equals("-jit");
+            DeadCodeEliminator dce = new DeadCodeEliminator();
+            dce.stores = !traced;
+            out = dce.E(out);
+            System.out.println("Dead code elimination removed " + dce.removed + " statements");
+            if (!traced) {
+                LoopOptimizer loops = new LoopOptimizer();
+                out = loops.L(out);
+                System.out.println("Loop optimization hoisted " + loops.hoisted
+                    + " and shared " + loops.shared + " expressions");
+            }
+            out.freeze();
+            State state;
+            if (mode.equals("-closures")) {
+                ClosureCompiler closures = new ClosureCompiler(out);
+                System.out.println("Change State");
+                state = closures.run();
+            } else if (mode.equals("-vm")) {
+                VM vm = new VM(out);
+                vm.display(0);
+                System.out.println("Change State");
+                state = vm.run();
+            } else if (mode.equals("-regvm")) {
+                RegisterVM vm = new RegisterVM(out);
+                vm.display(0);
+                System.out.println("Change State");
+                state = vm.run();
+            } else if (mode.equals("-flat")) {
+                Arena arena = new Arena(out);
+                arena.display(0);
+                System.out.println("Change State");
+                state = arena.run();
+            } else if (mode.equals("-jit")) {
+                Semantics semantics = new Semantics();
+                semantics.trace = false;
+                semantics.tiered = true;
+                state = semantics.M(out);
+            } else {
+                System.out.println("Change State");
+                state = new Semantics().M(out);
+            }
+            System.out.println("Final State");
+            state.display();
+        } catch (DiagnosticException e) {
+            e.exit();
+        }
     }
 }
@@ -0,0 +1,166 @@
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class Server {
+    // A resident compile-and-run service, so that many small programs share
+    // one warm JVM instead of each paying for a new one. Requests are read
+    // from stdin or, with -port, from connections to a local socket:
+    //
+    //     run <id> <length>\n<source>
+    //
+    // where length counts the UTF-8 bytes of the source. Each request gets
+    // one response on the same stream, in the order they finish:
+    //
+    //     <id> ok <length>\n<final state>\n
+    //     <id> error <length>\n<diagnostics, one per line>\n
+    //     <id> timeout 0\n
+    //
+    // Programs are compiled as Benchmark does and run by Semantics without
+    // a trace, on a pool of worker threads. One still running after the
+    // timeout, counted from when a worker starts it, so that time spent
+    // queued behind a slow program does not count, is interrupted and
+    // stops at its next loop iteration or call.
+    static final int STACK = 16 * 1024 * 1024;
+
+    private final ExecutorService workers;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(Threads.daemon("timer", 0));
+    private final long timeout;
+
+    Server(int threads, long timeout) {
+        workers = Executors.newFixedThreadPool(threads, Threads.daemon("worker", STACK));
+        this.timeout = timeout;
+    }
+
+    // the response to one program, without its header
+    static String run(String source, String[] status) {
+        try {
+            Program prog = Benchmark.compile(new Lexer(new StringReader(source)), false);
+            Semantics semantics = new Semantics();
+            semantics.trace = false;
+            State state = semantics.M(prog);
+            status[0] = "ok";
+            return state.toString();
+        } catch (DiagnosticException e) {
+            status[0] = "error";
+            return e.getMessage();
+        } catch (StackOverflowError e) {
+            status[0] = "error";
+            return "stack overflow";
+        } catch (RuntimeException e) {
+            status[0] = "error";
+            return "internal error: " + e;
+        }
+    }
+
+    private static void reply(OutputStream out, String id, String status, String body) {
+        byte[] b = body.isEmpty() ? new byte[0] : (body + "\n").getBytes(StandardCharsets.UTF_8);
+        byte[] header = (id + " " + status + " " + b.length + "\n").getBytes(StandardCharsets.UTF_8);
+        synchronized (out) {
+            try {
+                out.write(header);
+                out.write(b);
+                out.flush();
+            } catch (IOException e) {
+                // the client has gone; nothing to tell it
+            }
+        }
+    }
+
+    // Runs source and replies on out once it finishes or times out,
+    // whichever comes first; then it leaves pending.
+    void submit(String id, String source, OutputStream out, Phaser pending) {
+        AtomicBoolean answered = new AtomicBoolean();
+        pending.register();
+        FutureTask<?>[] running = new FutureTask<?>[1];
+        running[0] = new FutureTask<Void>(() -> {
+            Future<?> alarm = timer.schedule(() -> {
+                if (answered.compareAndSet(false, true)) {
+                    running[0].cancel(true);
+                    reply(out, id, "timeout", "");
+                    pending.arriveAndDeregister();
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+            String[] status = new String[1];
+            String body = run(source, status);
+            if (answered.compareAndSet(false, true)) {
+                alarm.cancel(false);
+                reply(out, id, status[0], body);
+                pending.arriveAndDeregister();
+            }
+        }, null);
+        workers.execute(running[0]);
+    }
+
+    private static String line(InputStream in) throws IOException {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) {
+                if (b.size() == 0) return null;
+                break;
+            }
+            b.write(c);
+        }
+        return b.toString(StandardCharsets.UTF_8);
+    }
+
+    // Reads requests from in until it ends, replying on out; returns once
+    // every request read has its reply.
+    void serve(InputStream in, OutputStream out) throws IOException {
+        in = new BufferedInputStream(in);
+        Phaser pending = new Phaser(1);
+        try {
+            String header;
+            while ((header = line(in)) != null) {
+                if (header.isBlank()) continue;
+                String[] words = header.trim().split(" +");
+                if (words.length != 3 || !words[0].equals("run"))
+                    throw new IOException("bad request: " + header);
+                int length = Integer.parseInt(words[2]);
+                byte[] source = in.readNBytes(length);
+                if (source.length < length) throw new IOException("request " + words[1] + " cut short");
+                submit(words[1], new String(source, StandardCharsets.UTF_8), out, pending);
+            }
+        } finally {
+            pending.arriveAndAwaitAdvance();
+        }
+    }
+
+    public static void main(String args[]) throws Exception {
+        int port = -1;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long timeout = 10000;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("-port")) port = Integer.parseInt(args[i + 1]);
+            else if (args[i].equals("-threads")) threads = Integer.parseInt(args[i + 1]);
+            else if (args[i].equals("-timeout")) timeout = Long.parseLong(args[i + 1]);
+        }
+        Server server = new Server(threads, timeout);
+        if (port < 0) {
+            OutputStream out = new BufferedOutputStream(System.out);
+            try {
+                server.serve(System.in, out);
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+            System.exit(0);
+        }
+        ServerSocket socket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        System.err.println("listening on " + socket.getLocalSocketAddress());
+        while (true) {
+            Socket client = socket.accept();
+            Thread t = new Thread(() -> {
+                try (Socket c = client) {
+                    server.serve(c.getInputStream(), new BufferedOutputStream(c.getOutputStream()));
+                } catch (IOException e) {
+                    System.err.println(e.getMessage());
+                }
+            });
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+}
@@ -1,31 +1,82 @@
-import java.util.*;
+public class State {
+    // State = globals; top activation record
+    // Variables are located by the slot Resolver assigned them, so reads
+    // and writes index an array rather than hashing the identifier.
+    private Frame globals;
+    private Frame top;
+    // print the state after every assignment
+    boolean trace = true;
 
-public class State extends HashMap<Variable, Value> {
-    public State() { }
-    
-    public State(Variable key, Value val) {
-        put(key, val);
+    public State(Declarations g) {
+        globals = new Frame(new Declarations(), g);
     }
-    
+
+    public Value get(Variable key) {
+        return (key.global ? globals : top).slots[key.slot];
+    }
+
+    Value global(int slot) { return globals.slots[slot]; }
+
+    Value local(int slot) { return top.slots[slot]; }
+
     public State onion(Variable key, Value val) {
-        put(key, val);
-        System.out.print("\t{ ");
-        for (Variable k : this.keySet())
-            System.out.print("<" + k + ", " + this.get(k) + "> ");
-        System.out.println("}");
+        (key.global ? globals : top).slots[key.slot] = val;
+        if (trace) display();
         return this;
     }
-    
-    public State onion(State t) {
-        for (Variable key : t.keySet())
-            put(key, t.get(key));
-        return this;
+
+    public Frame globals() { return globals; }
+
+    public Frame top() { return top; }
+
+    public Frame push(Frame f) {
+        Frame caller = top;
+        top = f;
+        return caller;
     }
 
+    public void pop(Frame caller) { top = caller; }
+
     public void display() {
-        System.out.print("\t{ ");
-        for (Variable key : this.keySet())
-            System.out.print("<" + key + ", " + this.get(key) + "> ");
-        System.out.println("}");
+        System.out.println("\t" + this);
+    }
+
+    public String toString() {
+        return "{ " + globals + (top != null ? top.toString() : "") + "}";
+    }
+}
+
+class Frame {
+    // Frame = Value[] slots (params, then locals); Value result
+    Function function;
+    Declarations params, locals;
+    Value[] slots;
+    Value result;
+    boolean returned = false;
+
+    Frame(Declarations p, Declarations l) {
+        params = p; locals = l;
+        slots = new Value[p.size() + l.size()];
+        for (int i = 0; i < l.size(); i++)
+            slots[p.size() + i] = Value.mkValue(l.get(i).type);
+    }
+
+    // result starts undef, so a call that falls off the end of a
+    // non-void function yields undef rather than null
+    Frame(Declarations p, Declarations l, Type t) {
+        this(p, l);
+        result = Value.mkValue(t);
+    }
+
+    Frame(Function f) { this(f.params, f.locals, f.type); function = f; }
+
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < params.size(); i++)
+            out.append("<" + params.get(i).var + ", " + slots[i] + "> ");
+        for (int i = 0; i < locals.size(); i++)
+            if (!locals.get(i).temporary)
+                out.append("<" + locals.get(i).var + ", " + slots[params.size() + i] + "> ");
+        return out.toString();
     }
 }
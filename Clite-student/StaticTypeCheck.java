@@ -1,3 +1,7 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
 public class StaticTypeCheck {
     public static TypeMap typing(Declarations ds) {
         TypeMap map = new TypeMap();
@@ -19,9 +23,7 @@ public class StaticTypeCheck {
     }
 
     public static void check(boolean test, String msg) {
-        if (test) return;
-        System.err.println(msg);
-        System.exit(1);
+        if (!test) throw new DiagnosticException(msg);
     }
 
     public static void checkProtoType(ProtoType p, TypeMap tm, Type t, Expressions es) {
@@ -34,63 +36,108 @@ public class StaticTypeCheck {
         }
     }
 
-    public static void V(Declarations ds) {
-        Declaration di, dj;
-        for (int i = 0; i < ds.size() - 1; i++) {
-            for (int j = i + 1; j < ds.size(); j++) {
-                di = ds.get(i);
-                dj = ds.get(j);
-                check(!di.var.equals(dj.var), "duplicate declaration: " + dj.var);
-            }
+    // Names declared in one scope, each with the site of its first
+    // declaration; every later declaration of a name is a duplicate.
+    static class Symbols {
+        private HashMap<String, String> sites = new HashMap<String, String>();
+        private Diagnostics duplicates;
+
+        Symbols() { this(new Diagnostics()); }
+
+        // scopes sharing one list are reported together
+        Symbols(Diagnostics d) { duplicates = d; }
+
+        void declare(String name, int line, int column) {
+            String first = sites.putIfAbsent(name, line + ":" + column);
+            if (first != null)
+                duplicates.add(new Diagnostic("duplicate declaration: " + name
+                    + ", first declared at " + first, line, column));
         }
+
+        void declare(Declarations ds) {
+            for (Declaration d : ds)
+                declare(d.var.toString(), d.line, d.column);
+        }
+
+        void report() {
+            duplicates.report();
+        }
+    }
+
+    public static void V(Declarations ds) {
+        Symbols symbols = new Symbols();
+        symbols.declare(ds);
+        symbols.report();
     }
 
     public static void V(Declarations d1, Declarations d2) {
-        V(d1); V(d2);
-        Declaration di, dj;
-        for (int i = 0; i < d1.size(); i++) {
-            for (int j = 0; j < d2.size(); j++) {
-                di = d1.get(i);
-                dj = d2.get(j);
-                check(!di.var.equals(dj.var), "duplicate declaration: " + dj.var);
-            }
-        }
+        Symbols symbols = new Symbols();
+        symbols.declare(d1);
+        symbols.declare(d2);
+        symbols.report();
     }
 
     public static void V(Declarations ds, Functions fs) {
-        Declaration di, dj;
-        Function fj;
-        for (int i = 0; i < ds.size(); i++) {
-            di = ds.get(i);
-            for (int j = i + 1; j < ds.size(); j++) {
-                dj = ds.get(j);
-                check(!di.var.equals(dj.var), "duplicate declaration: " + dj.var);
-            }
-            for (int j = 0; j < fs.size(); j++) {
-                fj = fs.get(j);
-                check(!di.var.toString().equals(fj.id), "duplicate declaration: " + fj.id);
-            }
+        Symbols symbols = new Symbols();
+        symbols.declare(ds);
+        for (Function f : fs)
+            symbols.declare(f.id, f.line, f.column);
+        symbols.report();
+    }
+
+    // One pass over every scope of p, reporting all duplicates at once.
+    static void duplicates(Program p) {
+        Diagnostics duplicates = new Diagnostics();
+        Symbols symbols = new Symbols(duplicates);
+        symbols.declare(p.globals);
+        for (Function f : p.functions)
+            symbols.declare(f.id, f.line, f.column);
+        for (Function f : p.functions) {
+            Symbols scope = new Symbols(duplicates);
+            scope.declare(f.params);
+            scope.declare(f.locals);
         }
+        symbols.report();
     }
 
+    // Every function is checked, and every statement of a block, after
+    // one fails; all the diagnostics are thrown together at the end.
     public static void V(Program p) {
-        V(p.globals, p.functions);
+        Diagnostics diagnostics = new Diagnostics();
+        try {
+            duplicates(p);
+        } catch (DiagnosticException e) {
+            diagnostics.add(e, 0, 0);
+        }
         boolean foundmain = false;
         TypeMap tmg = typing(p.globals, p.functions);
         System.out.println("Globals:");
         p.globals.display(1);
+        // functions in parallel; see Threads.fork
+        ArrayList<TypeMap> scopes = new ArrayList<TypeMap>();
+        ArrayList<Supplier<Boolean>> jobs = new ArrayList<Supplier<Boolean>>();
         for (Function f : p.functions) {
+            TypeMap tmf = tmg.scope(f.params, f.locals);
+            scopes.add(tmf);
+            jobs.add(() -> { V(f.body, tmf); return true; });
+        }
+        ArrayList<ForkJoinTask<Object>> tasks = Threads.fork(jobs);
+        for (int i = 0; i < tasks.size(); i++) {
+            Function f = p.functions.get(i);
             if (f.id.equals("main")) {
-                if (foundmain) check(false, "duplicate main function");
+                if (foundmain)
+                    diagnostics.add(new Diagnostic("duplicate main function", f.line, f.column));
                 else foundmain = true;
             }
-            V(f.params, f.locals);
-            TypeMap tmf = typing(f.params).onion(typing(f.locals));
-            tmf = tmg.onion(tmf);
             System.out.print("Function " + f.id + ": \n");
-            tmf.display();
-            V(f.body, tmf);
+            scopes.get(i).display();
+            try {
+                Threads.join(tasks.get(i));
+            } catch (DiagnosticException e) {
+                diagnostics.add(e, f.line, f.column);
+            }
         }
+        diagnostics.report();
     }
 
     public static Type typeOf(Function f, TypeMap tm) {
@@ -99,36 +146,91 @@ public class StaticTypeCheck {
         return tm.get(v);
     }
 
+    // Each node's type is computed once and kept on the node, so typing a
+    // whole expression, and asking again later, is linear in its size.
     public static Type typeOf(Expression e, TypeMap tm) {
         if (e instanceof Value) return ((Value)e).type;
         if (e instanceof Variable) {
             Variable v = (Variable)e;
-            check(tm.containsKey(v), "undefined variable: " + v);
-            return tm.get(v);
+            if (v.type == null) {
+                check(tm.containsKey(v), "undefined variable: " + v);
+                v.type = tm.get(v);
+            }
+            return v.type;
         }
         if (e instanceof Binary) {
             Binary b = (Binary)e;
-            if (b.op.ArithmeticOp())
-                if (typeOf(b.term1, tm) == Type.FLOAT) return (Type.FLOAT);
-                else return (Type.INT);
-            if (b.op.RelationalOp() || b.op.BooleanOp())
-                return (Type.BOOL);
+            if (b.type == null) b.type = typeOfBinary(b, tm);
+            return b.type;
         }
         if (e instanceof Unary) {
             Unary u = (Unary)e;
-            if (u.op.NotOp()) return (Type.BOOL);
-            if (u.op.NegateOp()) return typeOf(u.term,tm);
-            if (u.op.intOp()) return (Type.INT);
-            if (u.op.floatOp()) return (Type.FLOAT);
-            if (u.op.charOp()) return (Type.CHAR);
+            if (u.type == null) u.type = typeOfUnary(u, tm);
+            return u.type;
         }
         if (e instanceof Call) {
             Call c = (Call)e;
-            check(tm.containsKey(new Variable(c.name)), "undefined call: " + c.name);
-            return tm.get(new Variable(c.name));
+            if (c.type == null) {
+                check(tm.containsKey(new Variable(c.name)), "undefined call: " + c.name);
+                c.type = ((ProtoType)tm.get(new Variable(c.name))).result;
+            }
+            return c.type;
         }
         throw new IllegalArgumentException("should never reach here");
-    } 
+    }
+
+    private static Type typeOfBinary(Binary b, TypeMap tm) {
+        if (b.op.ArithmeticOp())
+            if (typeOf(b.term1, tm) == Type.FLOAT) return (Type.FLOAT);
+            else return (Type.INT);
+        if (b.op.RelationalOp() || b.op.BooleanOp())
+            return (Type.BOOL);
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    private static Type typeOfUnary(Unary u, TypeMap tm) {
+        if (u.op.NotOp()) return (Type.BOOL);
+        if (u.op.NegateOp()) return typeOf(u.term,tm);
+        if (u.op.intOp()) return (Type.INT);
+        if (u.op.floatOp()) return (Type.FLOAT);
+        if (u.op.charOp()) return (Type.CHAR);
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    // The checks on one node given the types of its parts, shared with
+    // the fused pass in TypeTransformer.VT.
+    static void V(Binary b, Type type1, Type type2) {
+        if (b.op.ArithmeticOp())
+            check(type1 == type2 &&
+                    (type1 == Type.INT || type1 == Type.FLOAT), "type error for " + b.op);
+        else if (b.op.RelationalOp())
+            check(type1 == type2 , "type error for " + b.op);
+        else if (b.op.BooleanOp())
+            check(type1 == Type.BOOL && type2 == Type.BOOL, "type error for " + b.op);
+        else throw new IllegalArgumentException("should never reach here");
+    }
+
+    static void V(Unary u, Type type) {
+        if (u.op.NotOp())
+            check(type == Type.BOOL, "type error for " + u.op);
+        else if (u.op.NegateOp())
+            check(type == Type.INT || type == Type.FLOAT, "type error for " + u.op);
+        else if (u.op.floatOp() || u.op.charOp())
+            check(type == Type.INT, "type error for " + u.op);
+        else if (u.op.intOp())
+            check(type == Type.FLOAT || type == Type.CHAR, "type error for " + u.op);
+        else throw new IllegalArgumentException("should never reach here");
+    }
+
+    static void V(Assignment a, Type ttype, Type srctype) {
+        if (ttype.toString() != srctype.toString()) {
+            if (ttype == Type.FLOAT)
+                check(srctype.toString() == Type.INT.toString(), "mixed mode assignment to " + a.target);
+            else if (ttype == Type.INT)
+                check(srctype.toString() == Type.CHAR.toString(), "mixed mode assignment to " + a.target);
+            else check(false, "mixed mode assignment to " + a.target);
+        }
+    }
 
     public static void V(Expression e, TypeMap tm) {
         if (e instanceof Value) return;
@@ -143,29 +245,14 @@ public class StaticTypeCheck {
             Type type2 = typeOf(b.term2, tm);
             V(b.term1, tm);
             V(b.term2, tm);
-            if (b.op.ArithmeticOp())
-                check(type1 == type2 &&
-                        (type1 == Type.INT || type1 == Type.FLOAT), "type error for " + b.op);
-            else if (b.op.RelationalOp())
-                check(type1 == type2 , "type error for " + b.op);
-            else if (b.op.BooleanOp())
-                check(type1 == Type.BOOL && type2 == Type.BOOL, "type error for " + b.op);
-            else throw new IllegalArgumentException("should never reach here");
+            V(b, type1, type2);
             return;
         }
         if (e instanceof Unary) {
             Unary u = (Unary)e;
             Type type = typeOf(u.term, tm);
             V(u.term, tm);
-            if (u.op.NotOp())
-                check(type == Type.BOOL, "type error for " + u.op);
-            else if (u.op.NegateOp())
-                check(type == Type.INT || type == Type.FLOAT, "type error for " + u.op);
-            else if (u.op.floatOp() || u.op.charOp())
-                check(type == Type.INT, "type error for " + u.op);
-            else if (u.op.intOp())
-                check(type == Type.FLOAT || type == Type.CHAR, "type error for " + u.op);
-            else throw new IllegalArgumentException("should never reach here");
+            V(u, type);
             return;
         }
         if (e instanceof Call) {
@@ -185,15 +272,7 @@ public class StaticTypeCheck {
             Assignment a = (Assignment)s;
             check(tm.containsKey(a.target), "undefined target in assignment: " + a.target);
             V(a.source, tm);
-            Type ttype = tm.get(a.target);
-            Type srctype = typeOf(a.source, tm);
-            if (ttype.toString() != srctype.toString()) {
-                if (ttype == Type.FLOAT)
-                    check(srctype.toString() == Type.INT.toString(), "mixed mode assignment to " + a.target);
-                else if (ttype == Type.INT)
-                    check(srctype.toString() == Type.CHAR.toString(), "mixed mode assignment to " + a.target);
-                else check(false, "mixed mode assignment to " + a.target);
-            }
+            V(a, tm.get(a.target), typeOf(a.source, tm));
             return;
         }
         if (s instanceof Conditional) {
@@ -217,14 +296,19 @@ public class StaticTypeCheck {
             return;
         }
         if (s instanceof Block) {
-            Block b = (Block)s;
-            for (Statement stmt : b)
-                V(stmt, tm);
+            Diagnostics diagnostics = new Diagnostics();
+            for (Statement stmt : (Block)s)
+                try {
+                    V(stmt, tm);
+                } catch (DiagnosticException e) {
+                    diagnostics.add(e, stmt);
+                }
+            diagnostics.report();
             return;
         }
         if (s instanceof Call) {
             Call c = (Call)s;
-            check(tm.containsKey(c.name), "undefined call: " + c.name);
+            check(tm.containsKey(new Variable(c.name)), "undefined call: " + c.name);
             ProtoType p = (ProtoType)tm.get(new Variable(c.name));
             checkProtoType(p, tm, Type.VOID, c.args);
             return;
@@ -240,12 +324,16 @@ public class StaticTypeCheck {
     }
 
     public static void main(String args[]) {
-        Parser parser = new Parser(new Lexer(args[0]));
-        Program prog = parser.program();
-        prog.display(0);
-        System.out.println("Type map:");
-        TypeMap map = typing(prog.globals, prog.functions);
-        map.display();
-        V(prog);
+        try {
+            Parser parser = new Parser(new Lexer(args[0]));
+            Program prog = parser.program();
+            prog.display(0);
+            System.out.println("Type map:");
+            TypeMap map = typing(prog.globals, prog.functions);
+            map.display();
+            V(prog);
+        } catch (DiagnosticException e) {
+            e.exit();
+        }
     }
 }
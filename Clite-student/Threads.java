@@ -0,0 +1,44 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.Supplier;
+
+public class Threads {
+    // Thread helpers shared by the toolchain, so the lexer, the checker,
+    // Batch and Server need not reach into one another for them.
+
+    // Daemon threads named clite-<name>-<n>, with the given stack size in
+    // bytes, or the JVM's default for 0; none keeps the JVM alive.
+    static ThreadFactory daemon(String name, long stack) {
+        AtomicInteger n = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(null, r, "clite-" + name + "-" + n.incrementAndGet(), stack);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    // Runs jobs on the fork-join pool, as the checker and TypeTransformer
+    // do for functions and TokenBuffer for the parts of a source. The
+    // caller joins them in order, so diagnostics come out in the order a
+    // sequential walk finds them.
+    static <T> ArrayList<ForkJoinTask<Object>> fork(List<Supplier<T>> jobs) {
+        ArrayList<ForkJoinTask<Object>> tasks = new ArrayList<ForkJoinTask<Object>>();
+        for (Supplier<T> job : jobs)
+            tasks.add(ForkJoinTask.adapt(() -> {
+                try {
+                    return (Object)job.get();
+                } catch (RuntimeException e) {
+                    return e;
+                }
+            }).fork());
+        return tasks;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T join(ForkJoinTask<Object> task) {
+        Object result = task.join();
+        if (result instanceof RuntimeException) throw (RuntimeException)result;
+        return (T)result;
+    }
+}
@@ -1,8 +1,9 @@
 public class Token {
     private static final int KEYWORDS = TokenType.Eof.ordinal();
+    // the types below Identifier each have just one token
+    static final int FIXED = TokenType.Identifier.ordinal();
 
-    private static final String[] reserved = new String[KEYWORDS];
-    private static Token[] token = new Token[KEYWORDS];
+    private static Token[] token = new Token[FIXED];
 
     public static final Token eofTok = new Token(TokenType.Eof, "<<EOF>>");
     public static final Token boolTok = new Token(TokenType.Bool, "bool");
@@ -40,15 +41,27 @@ public class Token {
     public static final Token andTok = new Token(TokenType.And, "&&");
     public static final Token orTok = new Token(TokenType.Or, "||");
 
+    // keywords by a perfect hash of their length and first and last chars
+    private static final Token[] keywords = new Token[32];
+    static {
+        for (int i = 0; i < KEYWORDS; i++) {
+            Token t = token[i];
+            int h = hash(t.value.charAt(0), t.value.charAt(t.value.length() - 1), t.value.length());
+            if (keywords[h] != null) throw new IllegalArgumentException("should never reach here");
+            keywords[h] = t;
+        }
+    }
+
     private TokenType type;
     private String value = "";
+    // the Token's number in the Table that made it; -1 if none did
+    private int id = -1;
 
     private Token(TokenType t, String v) {
         type = t;
         value = v;
-        if (t.compareTo(TokenType.Eof) < 0) {
+        if (t.compareTo(TokenType.Identifier) < 0) {
             int ti = t.ordinal();
-            reserved[ti] = v;
             token[ti] = this;
         }
     }
@@ -57,14 +70,34 @@ public class Token {
 
     public String value() { return value; }
 
+    int id() { return id; }
+
+    // the one token of a type below FIXED
+    static Token of(int type) { return token[type]; }
+
+    private static int hash(char first, char last, int length) {
+        return (first * 5 + last + length) & (keywords.length - 1);
+    }
+
+    private static boolean spells(String s, char[] buf, int start, int length) {
+        if (s.length() != length) return false;
+        for (int i = 0; i < length; i++)
+            if (s.charAt(i) != buf[start + i]) return false;
+        return true;
+    }
+
     public static Token keyword(String name) {
-        char ch = name.charAt(0);
-        if (ch >= 'A' && ch <= 'Z') return mkIdentTok(name);
-        for (int i = 0; i < KEYWORDS; i++)
-           if (name.equals(reserved[i])) return token[i];
+        Token t = keywords[hash(name.charAt(0), name.charAt(name.length() - 1), name.length())];
+        if (t != null && t.value.equals(name)) return t;
         return mkIdentTok(name);
     }
 
+    // the keyword spelled by buf[start, start + length), or null
+    static Token keyword(char[] buf, int start, int length) {
+        Token t = keywords[hash(buf[start], buf[start + length - 1], length)];
+        return t != null && spells(t.value, buf, start, length) ? t : null;
+    }
+
     public static Token mkIdentTok(String name) {
         return new Token(TokenType.Identifier, name);
     }
@@ -81,6 +114,49 @@ public class Token {
         return new Token(TokenType.CharLiteral, name);
     }
 
+    static class Table {
+        // The identifier and literal tokens made by one Lexer, so that a
+        // spelling seen many times is one Token and one String. Each Lexer
+        // has its own, so it needs no locking and goes when the Lexer does.
+        // Tokens are numbered from 0 in the order they are made.
+        private Token[] tokens = new Token[256];
+        private int[] hashes = new int[256];
+        private int size;
+
+        // the token of type spelled by buf[start, start + length)
+        Token get(TokenType type, char[] buf, int start, int length) {
+            int h = type.ordinal();
+            for (int i = 0; i < length; i++) h = 31 * h + buf[start + i];
+            int i = slot(h);
+            for (Token t; (t = tokens[i]) != null; i = (i + 1) & (tokens.length - 1))
+                if (hashes[i] == h && t.type == type && spells(t.value, buf, start, length)) return t;
+            Token t = new Token(type, new String(buf, start, length));
+            t.id = size;
+            tokens[i] = t;
+            hashes[i] = h;
+            if (++size * 2 > tokens.length) grow();
+            return t;
+        }
+
+        private int slot(int h) {
+            return (h ^ (h >>> 16)) & (tokens.length - 1);
+        }
+
+        private void grow() {
+            Token[] ts = tokens;
+            int[] hs = hashes;
+            tokens = new Token[ts.length * 2];
+            hashes = new int[ts.length * 2];
+            for (int j = 0; j < ts.length; j++) {
+                if (ts[j] == null) continue;
+                int i = slot(hs[j]);
+                while (tokens[i] != null) i = (i + 1) & (tokens.length - 1);
+                tokens[i] = ts[j];
+                hashes[i] = hs[j];
+            }
+        }
+    }
+
     public String toString() {
         if (type.compareTo(TokenType.Identifier) < 0) return value;
         return type + "\t" + value;
@@ -0,0 +1,188 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+public class TokenBuffer implements TokenStream {
+    // The tokens of a whole source, lexed ahead of the Parser and packed
+    // into chunks of parallel arrays: the TokenType ordinal, the source
+    // offset, line and column, and for identifiers and literals the id of
+    // the Lexer's interned Token. The Parser reads them back through a
+    // cursor. The Lexer runs to the end first, or, when concurrent, on a
+    // thread of its own while the Parser reads the chunks it has finished,
+    // waiting while it is AHEAD chunks ahead; chunks already read are let
+    // go, and close() stops it once the Parser is done. A source split
+    // into parts is lexed on the fork-join pool, a part to a task, and
+    // read back part by part.
+    static final int CHUNK = 4096;
+    static final int AHEAD = 16;
+
+    private static class Chunk {
+        final byte[] types = new byte[CHUNK];
+        final int[] offsets = new int[CHUNK];
+        final int[] ids = new int[CHUNK];
+        final int[] lines = new int[CHUNK];
+        final int[] columns = new int[CHUNK];
+        int size;
+        // the tokens the Lexer interned while lexing this chunk, by id
+        final List<Token> names = new ArrayList<Token>();
+        // the first chunk of a part, whose Lexer numbers its tokens from 0
+        boolean first;
+        // the chunk ends at Eof, or where the Lexer threw error
+        boolean last;
+        Throwable error;
+    }
+
+    private final BlockingQueue<Chunk> chunks = new ArrayBlockingQueue<Chunk>(AHEAD);
+    // the thread lexing, if concurrent, until the Parser closes this
+    private Thread lexing;
+    private volatile boolean closed;
+    // the parts still lexing, if split, how many have been joined, and
+    // the chunks of those not read yet
+    private List<ForkJoinTask<Object>> parts;
+    private int joined;
+    private final ArrayDeque<Chunk> ready = new ArrayDeque<Chunk>();
+    // the cursor: the next token is chunk's number next
+    private Chunk chunk = new Chunk();
+    private int next;
+    // the interned tokens of the chunks read so far, by id
+    private Token[] names = new Token[256];
+    private int known, base;
+    // where the last token returned by next() is
+    private int tokenLine, tokenColumn, tokenOffset;
+
+    TokenBuffer(Lexer lexer, boolean concurrent) {
+        if (concurrent) {
+            lexing = Threads.daemon("lexer", 0).newThread(() -> lex(lexer, this::put, true));
+            lexing.start();
+        } else lex(lexer, ready::add, true);
+    }
+
+    // the tokens of the parts of a source, as Lexer.split makes them
+    TokenBuffer(List<Lexer> split) {
+        List<Supplier<List<Chunk>>> jobs = new ArrayList<Supplier<List<Chunk>>>();
+        for (int k = 0; k < split.size(); k++) {
+            Lexer part = split.get(k);
+            boolean last = k == split.size() - 1;
+            jobs.add(() -> {
+                List<Chunk> out = new ArrayList<Chunk>();
+                lex(part, out::add, last);
+                return out;
+            });
+        }
+        parts = Threads.fork(jobs);
+    }
+
+    // Lexes to the end of the source, handing on each chunk to out once it
+    // is full, or until out refuses one. The Eof of a part other than the
+    // last is left out.
+    private static void lex(Lexer lexer, Predicate<Chunk> out, boolean last) {
+        Chunk c = new Chunk();
+        c.first = true;
+        int interned = 0;
+        try {
+            for (Token t = null; t != Token.eofTok; ) {
+                t = lexer.next();
+                if (t == Token.eofTok && !last) break;
+                if (c.size == CHUNK) {
+                    if (!out.test(c)) return;
+                    c = new Chunk();
+                }
+                int i = c.size++;
+                c.types[i] = (byte)t.type().ordinal();
+                c.offsets[i] = lexer.tokenOffset();
+                c.lines[i] = lexer.tokenLine();
+                c.columns[i] = lexer.tokenColumn();
+                c.ids[i] = t.id();
+                if (t.id() == interned) {
+                    c.names.add(t);
+                    interned++;
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            c.error = e;
+        }
+        c.last = last || c.error != null;
+        out.test(c);
+    }
+
+    // hands c on from the lexing thread; false once the Parser has closed
+    // this, which interrupts a wait for room
+    private boolean put(Chunk c) {
+        if (closed) return false;
+        try {
+            chunks.put(c);
+            return true;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    // Stops lexing ahead once the Parser is done with this, at the end or
+    // at a syntax error, and lets go of the chunks not read.
+    public void close() {
+        closed = true;
+        if (lexing != null) lexing.interrupt();
+        if (parts != null)
+            for (ForkJoinTask<Object> p : parts)
+                p.cancel(false);
+        chunks.clear();
+        ready.clear();
+    }
+
+    private Chunk take() {
+        if (parts != null) {
+            while (ready.isEmpty())
+                ready.addAll(Threads.<List<Chunk>>join(parts.get(joined++)));
+            return ready.poll();
+        }
+        if (lexing == null) return ready.poll();
+        try {
+            return chunks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DiagnosticException("lexing interrupted");
+        }
+    }
+
+    public Token next() {
+        while (next == chunk.size) {
+            if (chunk.last) {
+                if (chunk.error instanceof Error) throw (Error)chunk.error;
+                if (chunk.error != null) throw (RuntimeException)chunk.error;
+                return Token.eofTok;
+            }
+            chunk = take();
+            next = 0;
+            if (chunk.first) base = known;
+            for (Token t : chunk.names) {
+                if (known == names.length) names = Arrays.copyOf(names, known * 2);
+                names[known++] = t;
+            }
+        }
+        int i = next++;
+        tokenLine = chunk.lines[i];
+        tokenColumn = chunk.columns[i];
+        tokenOffset = chunk.offsets[i];
+        int id = chunk.ids[i];
+        return id < 0 ? Token.of(chunk.types[i]) : names[base + id];
+    }
+
+    public int tokenLine() { return tokenLine; }
+
+    public int tokenColumn() { return tokenColumn; }
+
+    public int tokenOffset() { return tokenOffset; }
+}
+
+interface TokenStream {
+    // What the Parser reads: a Lexer, or a TokenBuffer filled by one.
+    Token next();
+
+    // where the last token returned by next() starts
+    int tokenLine();
+
+    int tokenColumn();
+
+    // once the reader is done, at the end or not
+    default void close() { }
+}
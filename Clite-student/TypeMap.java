@@ -1,22 +1,64 @@
 import java.util.*;
 
 public class TypeMap extends HashMap<Variable, Type> {
+    // A scope: lookups that miss here continue in the enclosing scope, so
+    // each function's map overlays its params and locals on the one map
+    // of globals instead of copying it. Only this scope's own entries are
+    // iterated or counted by the HashMap methods.
+    private final TypeMap parent;
+
+    public TypeMap() { this(null); }
+
+    public TypeMap(TypeMap p) { parent = p; }
+
+    public TypeMap parent() { return parent; }
+
+    public Type get(Object key) {
+        Type t = super.get(key);
+        if (t == null && parent != null) return parent.get(key);
+        return t;
+    }
+
+    public boolean containsKey(Object key) {
+        return super.containsKey(key) || parent != null && parent.containsKey(key);
+    }
+
+    // a new scope inside this one holding the declarations, each list
+    // added as a whole as onion does, so display lists them in its order
+    public TypeMap scope(Declarations... ds) {
+        TypeMap res = new TypeMap(this);
+        for (Declarations d : ds)
+            res.putAll(StaticTypeCheck.typing(d));
+        return res;
+    }
+
     public TypeMap onion(TypeMap tm) {
-        TypeMap res = new TypeMap();
-        res.putAll(this);
-        res.putAll(tm);
+        TypeMap res = new TypeMap(this);
+        tm.flatten(res);
         return res;
     }
 
+    // every visible entry, inner scopes overriding outer ones
+    private void flatten(HashMap<Variable, Type> out) {
+        if (parent != null) parent.flatten(out);
+        out.putAll(this);
+    }
+
+    // every visible entry, as when each scope held a copy of the globals
     public void display() {
-        for (Variable key : keySet()) {
+        HashMap<Variable, Type> shown = this;
+        if (parent != null) {
+            shown = new HashMap<Variable, Type>();
+            flatten(shown);
+        }
+        for (Variable key : shown.keySet()) {
             System.out.print("\t" + key + ", " );
-            Type t = this.get(key);
+            Type t = shown.get(key);
             if (t instanceof ProtoType) {
                 System.out.print(((ProtoType)t).id + ", ");
                 ((ProtoType)t).params.display(0);
             } else {
-                System.out.print(get(key).id + ",\t");
+                System.out.print(t.id + ",\t");
             }
         }
     }
@@ -1,17 +1,25 @@
+import java.util.*;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
+
 public class TypeTransformer {
     public static Program T(Program p, TypeMap tm) {
         Functions functions = T(p.functions, tm);
         return new Program(p.globals, functions);
     }
 
+    // functions in parallel; see Threads.fork
     public static Functions T(Functions fs, TypeMap globals) {
-        Functions out = new Functions();
+        ArrayList<Supplier<Statement>> jobs = new ArrayList<Supplier<Statement>>();
         for (Function f : fs) {
-            TypeMap tm = new TypeMap();
-            tm.putAll(globals);
-            tm.putAll(StaticTypeCheck.typing(f.params));
-            tm.putAll(StaticTypeCheck.typing(f.locals));
-            Block b = (Block)T(f.body, tm);
+            TypeMap tm = globals.scope(f.params, f.locals);
+            jobs.add(() -> T(f.body, tm));
+        }
+        ArrayList<ForkJoinTask<Object>> tasks = Threads.fork(jobs);
+        Functions out = new Functions();
+        for (int i = 0; i < tasks.size(); i++) {
+            Function f = fs.get(i);
+            Block b = Threads.join(tasks.get(i));
             out.add(new Function(f.type, f.id, f.params, f.locals, b));
         }
         return out;
@@ -24,103 +32,121 @@ public class TypeTransformer {
             Binary b = (Binary)e;
             Type type1 = StaticTypeCheck.typeOf(b.term1, tm);
             Type type2 = StaticTypeCheck.typeOf(b.term2, tm);
-            Expression t1 = T(b.term1, tm);
-            Expression t2 = T(b.term2, tm);
-            if (type1 == Type.INT) {
-                if (type2 == Type.FLOAT)
-                    t2 = new Unary(new Operator(Operator.F2I), t2);
-                if (type2 == Type.CHAR)
-                    t2 = new Unary(new Operator(Operator.C2I), t2);
-                return new Binary(b.op.intMap(b.op.val), t1, t2);
-            }
-            if (type1 == Type.FLOAT) {
-                if (type2 == Type.INT)
-                    t2 = new Unary(new Operator(Operator.I2F), t2);
-                return new Binary(b.op.floatMap(b.op.val), t1, t2);
-            }
-            if (type1 == Type.CHAR) {
-                if (type2 == Type.INT)
-                    t2 = new Unary(new Operator(Operator.I2C), t2);
-                return new Binary(b.op.charMap(b.op.val), t1, t2);
-            }
-            if (type1 == Type.BOOL)
-                return new Binary(b.op.boolMap(b.op.val), t1, t2);
-            throw new IllegalArgumentException("should never reach here");
+            return T(b, type1, type2, T(b.term1, tm), T(b.term2, tm));
         }
         if (e instanceof Unary) {
             Unary u = (Unary)e;
             Type type = StaticTypeCheck.typeOf(u.term, tm);
-            Expression t0 = T(u.term, tm);
-            if (u.op.NotOp()) {
-                if (type == Type.BOOL)
-                    return new Unary(u.op.boolMap(u.op.val), t0);
-            }
-            if (u.op.NegateOp()) {
-                if (type == Type.INT)
-                    return new Unary(u.op.intMap(u.op.val), t0);
-                if (type == Type.FLOAT)
-                    return new Unary(u.op.floatMap(u.op.val), t0);
-            }
-            if (u.op.intOp()) {
-                if (type == Type.INT)
-                    return new Unary(u.op.intMap(u.op.val), t0);
-                if (type == Type.FLOAT)
-                    return new Unary(u.op.floatMap(u.op.val), t0);
-                if (type == Type.CHAR)
-                    return new Unary(u.op.charMap(u.op.val), t0);
-            }
-            if (u.op.floatOp()) {
-                if (type == Type.INT)
-                    return new Unary(u.op.intMap(u.op.val), t0);
-                if (type == Type.FLOAT)
-                    return new Unary(u.op.floatMap(u.op.val), t0);
+            return T(u, type, T(u.term, tm));
+        }
+        if (e instanceof Call) {
+            Call c = (Call)e;
+            Expressions exp = new Expressions();
+            for (Expression a : c.args)
+                exp.add(T(a, tm));
+            Call out = Statement.at(new Call(c.name, exp), c);
+            out.type = StaticTypeCheck.typeOf(c, tm);
+            return out;
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    // b rebuilt from its transformed terms, given their types
+    static Expression T(Binary b, Type type1, Type type2, Expression t1, Expression t2) {
+        if (type1 == Type.INT) {
+            if (type2 == Type.FLOAT)
+                t2 = new Unary(Operator.F2I, t2);
+            if (type2 == Type.CHAR)
+                t2 = new Unary(Operator.C2I, t2);
+            return new Binary(b.op.intMap(), t1, t2);
+        }
+        if (type1 == Type.FLOAT) {
+            if (type2 == Type.INT)
+                t2 = new Unary(Operator.I2F, t2);
+            return new Binary(b.op.floatMap(), t1, t2);
+        }
+        if (type1 == Type.CHAR) {
+            if (type2 == Type.INT)
+                t2 = new Unary(Operator.I2C, t2);
+            return new Binary(b.op.charMap(), t1, t2);
+        }
+        if (type1 == Type.BOOL)
+            return new Binary(b.op.boolMap(), t1, t2);
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    static Expression T(Unary u, Type type, Expression t0) {
+        if (u.op.NotOp()) {
+            if (type == Type.BOOL)
+                return new Unary(u.op.boolMap(), t0);
+        }
+        if (u.op.NegateOp()) {
+            // NEG shares its spelling with MINUS, so map it directly
+            if (type == Type.INT)
+                return new Unary(Operator.INT_NEG, t0);
+            if (type == Type.FLOAT)
+                return new Unary(Operator.FLOAT_NEG, t0);
+        }
+        if (u.op.intOp()) {
+            if (type == Type.INT)
+                return new Unary(u.op.intMap(), t0);
+            if (type == Type.FLOAT)
+                return new Unary(u.op.floatMap(), t0);
+            if (type == Type.CHAR)
+                return new Unary(u.op.charMap(), t0);
+        }
+        if (u.op.floatOp()) {
+            if (type == Type.INT)
+                return new Unary(u.op.intMap(), t0);
+            if (type == Type.FLOAT)
+                return new Unary(u.op.floatMap(), t0);
+        }
+        if (u.op.charOp()) {
+            if (type == Type.INT)
+                return new Unary(u.op.intMap(), t0);
+            if (type == Type.CHAR)
+                return new Unary(u.op.charMap(), t0);
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    // a with its transformed source converted to the target's type
+    static Assignment T(Assignment a, Type ttype, Type srctype, Expression src) {
+        if (ttype == Type.FLOAT) {
+            if (srctype == Type.INT) {
+                src = new Unary(Operator.I2F, src);
+                srctype = Type.FLOAT;
             }
-            if (u.op.charOp()) {
-                if (type == Type.INT)
-                    return new Unary(u.op.intMap(u.op.val), t0);
-                if (type == Type.CHAR)
-                    return new Unary(u.op.charMap(u.op.val), t0);
+        }
+        else if (ttype == Type.INT) {
+            if (srctype == Type.CHAR) {
+                src = new Unary(Operator.C2I, src);
+                srctype = Type.INT;
             }
-            throw new IllegalArgumentException("should never reach here");
         }
-        throw new IllegalArgumentException("should never reach here");
+        StaticTypeCheck.check(ttype == srctype, "bug in assignment to " + a.target);
+        return Statement.at(new Assignment(a.target, src), a);
     }
 
     public static Statement T(Statement s, TypeMap tm) {
         if (s instanceof Skip) return s;
         if (s instanceof Assignment) {
             Assignment a = (Assignment)s;
-            Variable target = a.target;
             Expression src = T(a.source, tm);
-            Type ttype = tm.get(a.target);
-            Type srctype = StaticTypeCheck.typeOf(a.source, tm);
-            if (ttype == Type.FLOAT) {
-                if (srctype == Type.INT) {
-                    src = new Unary(new Operator(Operator.I2F), src);
-                    srctype = Type.FLOAT;
-                }
-            }
-            else if (ttype == Type.INT) {
-                if (srctype == Type.CHAR) {
-                    src = new Unary(new Operator(Operator.C2I), src);
-                    srctype = Type.INT;
-                }
-            }
-            StaticTypeCheck.check(ttype == srctype, "bug in assignment to " + target);
-            return new Assignment(target, src);
+            return T(a, tm.get(a.target), StaticTypeCheck.typeOf(a.source, tm), src);
         }
         if (s instanceof Conditional) {
             Conditional c = (Conditional)s;
             Expression test = T(c.test, tm);
             Statement tbr = T(c.thenbranch, tm);
             Statement ebr = T(c.elsebranch, tm);
-            return new Conditional(test, tbr, ebr);
+            return Statement.at(new Conditional(test, tbr, ebr), c);
         }
         if (s instanceof Loop) {
             Loop l = (Loop)s;
             Expression test = T(l.test, tm);
             Statement body = T(l.body, tm);
-            return new Loop(test, body);
+            return Statement.at(new Loop(test, body), l);
         }
         if (s instanceof Block) {
             Block b = (Block)s;
@@ -134,26 +160,175 @@ public class TypeTransformer {
             Expressions exp = new Expressions();
             for (Expression e : c.args)
                 exp.add(T(e, tm));
-            return new Call(c.name, exp);
+            return Statement.at(new Call(c.name, exp), c);
         }
         if (s instanceof Return) {
             Return r = (Return)s;
             Expression result = T(r.result, tm);
-            return new Return(r.target, result);
+            return Statement.at(new Return(r.target, result), r);
         }
         throw new IllegalArgumentException("should never reach here");
     }
     
+    // StaticTypeCheck.V(Program) and T(Program, TypeMap) in one walk: each
+    // node is checked as V would, in the same order and with the same
+    // errors and output, and then rebuilt as T would from its already
+    // transformed parts. Call arguments are typed but, as in V, not
+    // checked themselves. As in V, functions run in parallel and errors
+    // are collected rather than stopping the walk.
+    public static Program VT(Program p) { return VT(p, true); }
+
+    // display is false for callers that only want the result
+    public static Program VT(Program p, boolean display) {
+        Diagnostics diagnostics = new Diagnostics();
+        try {
+            StaticTypeCheck.duplicates(p);
+        } catch (DiagnosticException e) {
+            diagnostics.add(e, 0, 0);
+        }
+        boolean foundmain = false;
+        TypeMap tmg = StaticTypeCheck.typing(p.globals, p.functions);
+        if (display) {
+            System.out.println("Globals:");
+            p.globals.display(1);
+        }
+        ArrayList<TypeMap> scopes = new ArrayList<TypeMap>();
+        ArrayList<Supplier<Statement>> jobs = new ArrayList<Supplier<Statement>>();
+        for (Function f : p.functions) {
+            TypeMap tmf = tmg.scope(f.params, f.locals);
+            scopes.add(tmf);
+            jobs.add(() -> VT(f.body, tmf));
+        }
+        ArrayList<ForkJoinTask<Object>> tasks = Threads.fork(jobs);
+        Functions out = new Functions();
+        for (int i = 0; i < tasks.size(); i++) {
+            Function f = p.functions.get(i);
+            if (f.id.equals("main")) {
+                if (foundmain)
+                    diagnostics.add(new Diagnostic("duplicate main function", f.line, f.column));
+                else foundmain = true;
+            }
+            if (display) {
+                System.out.print("Function " + f.id + ": \n");
+                scopes.get(i).display();
+            }
+            try {
+                Block b = Threads.join(tasks.get(i));
+                out.add(new Function(f.type, f.id, f.params, f.locals, b));
+            } catch (DiagnosticException e) {
+                diagnostics.add(e, f.line, f.column);
+            }
+        }
+        diagnostics.report();
+        return new Program(p.globals, out);
+    }
+
+    public static Expression VT(Expression e, TypeMap tm) {
+        if (e instanceof Value) return e;
+        if (e instanceof Variable) {
+            Variable v = (Variable)e;
+            StaticTypeCheck.check(tm.containsKey(v), "undefined variable: " + v);
+            return e;
+        }
+        if (e instanceof Binary) {
+            Binary b = (Binary)e;
+            Type type1 = StaticTypeCheck.typeOf(b.term1, tm);
+            Type type2 = StaticTypeCheck.typeOf(b.term2, tm);
+            Expression t1 = VT(b.term1, tm);
+            Expression t2 = VT(b.term2, tm);
+            StaticTypeCheck.V(b, type1, type2);
+            return T(b, type1, type2, t1, t2);
+        }
+        if (e instanceof Unary) {
+            Unary u = (Unary)e;
+            Type type = StaticTypeCheck.typeOf(u.term, tm);
+            Expression t0 = VT(u.term, tm);
+            StaticTypeCheck.V(u, type);
+            return T(u, type, t0);
+        }
+        if (e instanceof Call) {
+            Call c = (Call)e;
+            StaticTypeCheck.check(tm.containsKey(new Variable(c.name)), "undefined call: " + c.name);
+            ProtoType p = (ProtoType)tm.get(new Variable(c.name));
+            StaticTypeCheck.checkProtoType(p, tm, StaticTypeCheck.typeOf(e, tm), c.args);
+            return T(e, tm);
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    public static Statement VT(Statement s, TypeMap tm) {
+        if (s == null) throw new IllegalArgumentException("AST error: null statement");
+        if (s instanceof Skip) return s;
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment)s;
+            StaticTypeCheck.check(tm.containsKey(a.target), "undefined target in assignment: " + a.target);
+            Expression src = VT(a.source, tm);
+            Type ttype = tm.get(a.target);
+            Type srctype = StaticTypeCheck.typeOf(a.source, tm);
+            StaticTypeCheck.V(a, ttype, srctype);
+            return T(a, ttype, srctype, src);
+        }
+        if (s instanceof Conditional) {
+            Conditional c = (Conditional)s;
+            Expression test = VT(c.test, tm);
+            StaticTypeCheck.check(StaticTypeCheck.typeOf(c.test, tm) == Type.BOOL,
+                "poorly typed test: " + c.test);
+            Statement tbr = VT(c.thenbranch, tm);
+            Statement ebr = VT(c.elsebranch, tm);
+            return Statement.at(new Conditional(test, tbr, ebr), c);
+        }
+        if (s instanceof Loop) {
+            Loop l = (Loop)s;
+            Expression test = VT(l.test, tm);
+            StaticTypeCheck.check(StaticTypeCheck.typeOf(l.test, tm) == Type.BOOL,
+                "poorly typed test: " + l.test);
+            Statement body = VT(l.body, tm);
+            return Statement.at(new Loop(test, body), l);
+        }
+        if (s instanceof Block) {
+            Diagnostics diagnostics = new Diagnostics();
+            Block out = new Block();
+            for (Statement stmt : (Block)s)
+                try {
+                    out.add(VT(stmt, tm));
+                } catch (DiagnosticException e) {
+                    diagnostics.add(e, stmt);
+                }
+            diagnostics.report();
+            return out;
+        }
+        if (s instanceof Call) {
+            Call c = (Call)s;
+            StaticTypeCheck.check(tm.containsKey(new Variable(c.name)), "undefined call: " + c.name);
+            ProtoType p = (ProtoType)tm.get(new Variable(c.name));
+            StaticTypeCheck.checkProtoType(p, tm, Type.VOID, c.args);
+            return T(s, tm);
+        }
+        if (s instanceof Return) {
+            Return r = (Return)s;
+            StaticTypeCheck.check(tm.containsKey(r.target), "undefined return: " + r.target);
+            Expression result = VT(r.result, tm);
+            StaticTypeCheck.check(tm.get(r.target).toString().equals(
+                StaticTypeCheck.typeOf(r.result, tm).toString()), "incorrect return type");
+            return Statement.at(new Return(r.target, result), r);
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+
     public static void main(String args[]) {
-        Parser parser = new Parser(new Lexer(args[0]));
-        Program prog = parser.program();
-        prog.display(0);
-        System.out.println("Type map:");
-        TypeMap map = StaticTypeCheck.typing(prog.globals);
-        map.display();
-        StaticTypeCheck.V(prog);
-        Program out = T(prog, map);
-        System.out.println("Output AST");
-        out.display(0);
+        try {
+            Parser parser = new Parser(new Lexer(args[0]));
+            Program prog = parser.program();
+            prog.display(0);
+            System.out.println("Type map:");
+            TypeMap map = StaticTypeCheck.typing(prog.globals, prog.functions);
+            map.display();
+            StaticTypeCheck.V(prog);
+            Program out = T(prog, map);
+            System.out.println("Output AST");
+            out.display(0);
+        } catch (DiagnosticException e) {
+            e.exit();
+        }
     }
 }
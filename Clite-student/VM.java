@@ -0,0 +1,272 @@
+import java.util.*;
+
+public class VM {
+    // Stack machine for Bytecode. Each activation keeps its locals in a
+    // Frame pushed on State, so the final state and the trace match
+    // Semantics.M(Program).
+    private Program program;
+    private Bytecode[] functions;
+    boolean trace = true;
+
+    VM(Program p) {
+        program = p;
+        functions = BytecodeCompiler.C(p);
+    }
+
+    public void display(int k) {
+        for (Bytecode b : functions)
+            b.display(k);
+    }
+
+    static void defined(Value v) {
+        StaticTypeCheck.check(!v.isUndef(), "reference to undef value");
+    }
+
+    static void defined(Value v1, Value v2) {
+        StaticTypeCheck.check(!v1.isUndef() && !v2.isUndef(), "reference to undef value");
+    }
+
+    State run() {
+        State state = new State(program.globals);
+        state.trace = trace;
+        Value[] globals = state.globals().slots;
+
+        Function main = program.functions.getFunction(Token.mainTok.toString());
+        Bytecode fn = functions[program.functions.indexOf(main)];
+        Frame frame = new Frame(main);
+        state.push(frame);
+        int[] code = fn.code;
+        Value[] constants = fn.constants;
+        Value[] locals = frame.slots;
+        int pc = 0;
+
+        Value[] stack = new Value[Math.max(16, 2 * fn.maxStack)];
+        int sp = 0;
+        // saved caller activations
+        Bytecode[] fns = new Bytecode[16];
+        Frame[] frames = new Frame[16];
+        int[] pcs = new int[16];
+        int fp = 0;
+
+        Value a, b;
+        while (true) {
+            switch (code[pc++]) {
+                case Bytecode.CONST:
+                    stack[sp++] = constants[code[pc++]];
+                    break;
+                case Bytecode.LOAD:
+                    stack[sp++] = locals[code[pc++]];
+                    break;
+                case Bytecode.STORE:
+                    locals[code[pc++]] = stack[--sp];
+                    if (trace) state.display();
+                    break;
+                case Bytecode.GLOAD:
+                    stack[sp++] = globals[code[pc++]];
+                    break;
+                case Bytecode.GSTORE:
+                    globals[code[pc++]] = stack[--sp];
+                    if (trace) state.display();
+                    break;
+                case Bytecode.JUMP:
+                    pc = code[pc];
+                    break;
+                case Bytecode.JUMP_FALSE:
+                    if (stack[--sp].boolValue()) pc++;
+                    else pc = code[pc];
+                    break;
+                case Bytecode.CALL: {
+                    Bytecode callee = functions[code[pc++]];
+                    Frame f = new Frame(callee.function);
+                    int n = callee.function.params.size();
+                    sp -= n;
+                    System.arraycopy(stack, sp, f.slots, 0, n);
+                    if (fp == fns.length) {
+                        fns = Arrays.copyOf(fns, 2 * fp);
+                        frames = Arrays.copyOf(frames, 2 * fp);
+                        pcs = Arrays.copyOf(pcs, 2 * fp);
+                    }
+                    fns[fp] = fn; frames[fp] = frame; pcs[fp] = pc; fp++;
+                    if (sp + callee.maxStack + 1 > stack.length)
+                        stack = Arrays.copyOf(stack, 2 * (sp + callee.maxStack + 1));
+                    state.push(f);
+                    fn = callee; frame = f;
+                    code = fn.code; constants = fn.constants; locals = f.slots;
+                    pc = 0;
+                    break;
+                }
+                case Bytecode.RET:
+                case Bytecode.END: {
+                    Value result = code[pc - 1] == Bytecode.RET ? stack[--sp] : frame.result;
+                    if (fp == 0) return state;
+                    fp--;
+                    fn = fns[fp]; frame = frames[fp]; pc = pcs[fp];
+                    fns[fp] = null; frames[fp] = null;
+                    state.pop(frame);
+                    code = fn.code; constants = fn.constants; locals = frame.slots;
+                    stack[sp++] = result;
+                    break;
+                }
+                case Bytecode.POP:
+                    sp--;
+                    break;
+
+                case Bytecode.INT_PLUS:
+                    b = stack[--sp]; a = stack[sp - 1]; defined(a, b);
+                    stack[sp - 1] = new IntValue(a.intValue() + b.intValue());
+                    break;
+                case Bytecode.INT_MINUS:
+                    b = stack[--sp]; a = stack[sp - 1]; defined(a, b);
+                    stack[sp - 1] = new IntValue(a.intValue() - b.intValue());
+                    break;
+                case Bytecode.INT_TIMES:
+                    b = stack[--sp]; a = stack[sp - 1]; defined(a, b);
+                    stack[sp - 1] = new IntValue(a.intValue() * b.intValue());
+                    break;
+                case Bytecode.INT_DIV:
+                    b = stack[--sp]; a = stack[sp - 1]; defined(a, b);
+                    stack[sp - 1] = new IntValue(Operator.divide(a.intValue(), b.intValue()));
+                    break;
+                case Bytecode.INT_LT:
+                    b = stack[--sp]; a = stack[sp - 1]; defined(a, b);
+                    stack[sp - 1] = new BoolValue(a.intValue() < b.intValue());
+                    break;
+                case Bytecode.INT_LE:
+                    b = stack[--sp]; a = stack[sp - 1]; defined(a, b);
+                    stack[sp - 1] = new BoolValue(a.intValue() <= b.intValue());
+                    break;
+                case Bytecode.INT_EQ:
+                    b = stack[--sp]; a = stack[sp - 1]; defined(a, b);
+                    stack[sp - 1] = new BoolValue(a.intValue() == b.intValue());
+                    break;
+                case Bytecode.INT_NE:
+                    b = stack[--sp]; a = stack[sp - 1]; defined(a, b);
+                    stack[sp - 1] = new BoolValue(a.intValue() != b.intValue());
+                    break;
+                case Bytecode.INT_GT:
+                    b = stack[--sp]; a = stack[sp - 1]; defined(a, b);
+                    stack[sp - 1] = new BoolValue(a.intValue() > b.intValue());
+                    break;
+                case Bytecode.INT_GE:
+                    b = stack[--sp]; a = stack[sp - 1]; defined(a, b);
+                    stack[sp - 1] = new BoolValue(a.intValue() >= b.intValue());
+                    break;
+
+                case Bytecode.FLOAT_PLUS:
+                    b = stack[--sp]; a = stack[sp - 1]; defined(a, b);
+                    stack[sp - 1] = new FloatValue(a.floatValue() + b.floatValue());
+                    break;
+                case Bytecode.FLOAT_MINUS:
+                    b = stack[--sp]; a = stack[sp - 1]; defined(a, b);
+                    stack[sp - 1] = new FloatValue(a.floatValue() - b.floatValue());
+                    break;
+                case Bytecode.FLOAT_TIMES:
+                    b = stack[--sp]; a = stack[sp - 1]; defined(a, b);
+                    stack[sp - 1] = new FloatValue(a.floatValue() * b.floatValue());
+                    break;
+                case Bytecode.FLOAT_DIV:
+                    b = stack[--sp]; a = stack[sp - 1]; defined(a, b);
+                    stack[sp - 1] = new FloatValue(a.floatValue() / b.floatValue());
+                    break;
+                case Bytecode.FLOAT_LT:
+                    b = stack[--sp]; a = stack[sp - 1]; defined(a, b);
+                    stack[sp - 1] = new BoolValue(a.floatValue() < b.floatValue());
+                    break;
+                case Bytecode.FLOAT_LE:
+                    b = stack[--sp]; a = stack[sp - 1]; defined(a, b);
+                    stack[sp - 1] = new BoolValue(a.floatValue() <= b.floatValue());
+                    break;
+                case Bytecode.FLOAT_EQ:
+                    b = stack[--sp]; a = stack[sp - 1]; defined(a, b);
+                    stack[sp - 1] = new BoolValue(a.floatValue() == b.floatValue());
+                    break;
+                case Bytecode.FLOAT_NE:
+                    b = stack[--sp]; a = stack[sp - 1]; defined(a, b);
+                    stack[sp - 1] = new BoolValue(a.floatValue() != b.floatValue());
+                    break;
+                case Bytecode.FLOAT_GT:
+                    b = stack[--sp]; a = stack[sp - 1]; defined(a, b);
+                    stack[sp - 1] = new BoolValue(a.floatValue() > b.floatValue());
+                    break;
+                case Bytecode.FLOAT_GE:
+                    b = stack[--sp]; a = stack[sp - 1]; defined(a, b);
+                    stack[sp - 1] = new BoolValue(a.floatValue() >= b.floatValue());
+                    break;
+
+                case Bytecode.CHAR_LT:
+                    b = stack[--sp]; a = stack[sp - 1]; defined(a, b);
+                    stack[sp - 1] = new BoolValue(a.charValue() < b.charValue());
+                    break;
+                case Bytecode.CHAR_LE:
+                    b = stack[--sp]; a = stack[sp - 1]; defined(a, b);
+                    stack[sp - 1] = new BoolValue(a.charValue() <= b.charValue());
+                    break;
+                case Bytecode.CHAR_EQ:
+                    b = stack[--sp]; a = stack[sp - 1]; defined(a, b);
+                    stack[sp - 1] = new BoolValue(a.charValue() == b.charValue());
+                    break;
+                case Bytecode.CHAR_NE:
+                    b = stack[--sp]; a = stack[sp - 1]; defined(a, b);
+                    stack[sp - 1] = new BoolValue(a.charValue() != b.charValue());
+                    break;
+                case Bytecode.CHAR_GT:
+                    b = stack[--sp]; a = stack[sp - 1]; defined(a, b);
+                    stack[sp - 1] = new BoolValue(a.charValue() > b.charValue());
+                    break;
+                case Bytecode.CHAR_GE:
+                    b = stack[--sp]; a = stack[sp - 1]; defined(a, b);
+                    stack[sp - 1] = new BoolValue(a.charValue() >= b.charValue());
+                    break;
+
+                case Bytecode.BOOL_AND:
+                    b = stack[--sp]; a = stack[sp - 1]; defined(a, b);
+                    stack[sp - 1] = new BoolValue(a.boolValue() && b.boolValue());
+                    break;
+                case Bytecode.BOOL_OR:
+                    b = stack[--sp]; a = stack[sp - 1]; defined(a, b);
+                    stack[sp - 1] = new BoolValue(a.boolValue() || b.boolValue());
+                    break;
+                case Bytecode.BOOL_EQ:
+                    b = stack[--sp]; a = stack[sp - 1]; defined(a, b);
+                    stack[sp - 1] = new BoolValue(a.boolValue() == b.boolValue());
+                    break;
+                case Bytecode.BOOL_NE:
+                    b = stack[--sp]; a = stack[sp - 1]; defined(a, b);
+                    stack[sp - 1] = new BoolValue(a.boolValue() != b.boolValue());
+                    break;
+
+                case Bytecode.NOT:
+                    a = stack[sp - 1]; defined(a);
+                    stack[sp - 1] = new BoolValue(!a.boolValue());
+                    break;
+                case Bytecode.INT_NEG:
+                    a = stack[sp - 1]; defined(a);
+                    stack[sp - 1] = new IntValue(-a.intValue());
+                    break;
+                case Bytecode.FLOAT_NEG:
+                    a = stack[sp - 1]; defined(a);
+                    stack[sp - 1] = new FloatValue(-a.floatValue());
+                    break;
+                case Bytecode.I2F:
+                    a = stack[sp - 1]; defined(a);
+                    stack[sp - 1] = new FloatValue((float)a.intValue());
+                    break;
+                case Bytecode.F2I:
+                    a = stack[sp - 1]; defined(a);
+                    stack[sp - 1] = new IntValue((int)a.floatValue());
+                    break;
+                case Bytecode.C2I:
+                    a = stack[sp - 1]; defined(a);
+                    stack[sp - 1] = new IntValue((int)a.charValue());
+                    break;
+                case Bytecode.I2C:
+                    a = stack[sp - 1]; defined(a);
+                    stack[sp - 1] = new CharValue((char)a.intValue());
+                    break;
+
+                default:
+                    throw new IllegalArgumentException("should never reach here");
+            }
+        }
+    }
+}
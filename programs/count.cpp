@@ -0,0 +1,7 @@
+int main() {
+    int i, n;
+    n = 1000000;
+    i = 0;
+    while (i < n)
+        i = i + 1;
+}
@@ -0,0 +1,8 @@
+int f(int x) {
+    if (x > 0) { return x; }
+}
+
+int main() {
+    int r;
+    r = f(0) + 1;
+}